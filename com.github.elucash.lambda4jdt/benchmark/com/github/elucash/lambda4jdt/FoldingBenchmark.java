@@ -0,0 +1,265 @@
+package com.github.elucash.lambda4jdt;
+
+import static org.eclipse.jdt.core.compiler.ITerminalSymbols.TokenNameWHITESPACE;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.jface.text.Document;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.source.Annotation;
+import org.eclipse.jface.text.source.projection.ProjectionAnnotationModel;
+
+/**
+ * Headless benchmark of the lambda folding pipeline: token indexing, scanner navigation, region
+ * demarcation, the full region computation, the annotation diff of a folding update and the
+ * {@link LambdaFoldingEngine headless engine}. Runs against {@link SyntheticSource synthetic
+ * sources} on a plain {@link Document} and {@link ProjectionAnnotationModel}, no workbench or
+ * display is needed.
+ * <p>
+ * Usage: <code>FoldingBenchmark [warmup iterations] [measured iterations]</code>, the plugin,
+ * JDT core and JFace text jars on the class path. Reports throughput, mean and p99 latency and,
+ * where the VM supports it, allocated bytes per operation.
+ * </p>
+ */
+public class FoldingBenchmark {
+
+	private static final int[] CLOSURES = {10, 100, 1000};
+	private static final int[] DEPTHS = {1, 3};
+
+	/** Results are folded in here so that the VM cannot drop the measured work */
+	static long blackhole;
+
+	/**
+	 * A measured operation. {@link #setUp()} runs before each invocation, outside of the
+	 * measurement.
+	 */
+	static abstract class Operation {
+		final String name;
+
+		Operation(String name) {
+			this.name = name;
+		}
+
+		void setUp() {}
+
+		abstract void run() throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int warmup = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+		System.out.println(header());
+		for (int closures : CLOSURES) {
+			for (int depth : DEPTHS) {
+				for (int tabs = 0; tabs < 2; tabs++) {
+					SyntheticSource source = new SyntheticSource(closures, depth, tabs == 0);
+					for (Operation operation : operations(source))
+						System.out.println(measure(source, operation, warmup, iterations));
+				}
+			}
+		}
+		System.out.println("# " + blackhole);
+	}
+
+	static List<Operation> operations(final SyntheticSource s) {
+		final char[] chars = s.source.toCharArray();
+		final Document document = new Document(s.source);
+		final TokenIndex tokens = new TokenIndex(chars);
+		final LambdaRegionComputer computer = new LambdaRegionComputer();
+		final RegionDemarkator marker = new RegionDemarkator();
+
+		List<Operation> operations = new ArrayList<Operation>();
+
+		operations.add(new Operation("TokenIndex") {
+			void run() {
+				blackhole += new TokenIndex(chars).tokenAt(chars.length);
+			}
+		});
+
+		operations.add(new Operation("ScannerHelper") {
+			void run() {
+				for (int i = 0; i < s.offsets.length; i++) {
+					ScannerHelper scan = new ScannerHelper(tokens, s.offsets[i], s.lengths[i]);
+					while (scan.seekAnyExcept(TokenNameWHITESPACE) >= 0)
+						blackhole += scan.offset;
+				}
+			}
+		});
+
+		operations.add(new Operation("RegionDemarkator") {
+			void run() {
+				for (int i = 0; i < s.offsets.length; i++) {
+					int offset = s.offsets[i];
+					int length = s.lengths[i];
+					marker.reset(offset);
+					marker.start(0);
+					int step = Math.max(1, length / 16);
+					for (int f = step; f + step < length; f += step) {
+						int slot = marker.end(f);
+						if ((f / step & 3) == 0)
+							marker.reveal(slot);
+						marker.start(f);
+					}
+					marker.end(length - 1);
+					blackhole += marker.toProcessedArray().length;
+				}
+			}
+		});
+
+		operations.add(new Operation("Regions (shared index)") {
+			void run() {
+				for (int i = 0; i < s.offsets.length; i++)
+					blackhole += compute(computer, s.source, tokens, s.offsets[i], s.lengths[i])
+					        .length;
+			}
+		});
+
+		operations.add(new Operation("Regions (own scan)") {
+			void run() {
+				for (int i = 0; i < s.offsets.length; i++)
+					blackhole += compute(computer, s.source, null, s.offsets[i], s.lengths[i])
+					        .length;
+			}
+		});
+
+		operations.add(new MatchOperation(s, document));
+
+		final LambdaFoldingEngine engine = new LambdaFoldingEngine();
+		operations.add(new Operation("LambdaFoldingEngine") {
+			void run() {
+				blackhole += engine.computeFolds(chars).length;
+			}
+		});
+
+		return operations;
+	}
+
+	static IRegion[] compute(LambdaRegionComputer computer, String source, TokenIndex tokens,
+	        int offset, int length) {
+		boolean clause = LambdaRegionComputer.isSingleParameterToHigherOrderMethod(source, offset,
+		        length);
+		return computer.compute(source.substring(offset, offset + length), tokens, offset, clause,
+		        null);
+	}
+
+	/**
+	 * The annotation diff of a full folding update: every closure is re-added at its old offset,
+	 * so that each deletion is matched to an addition and turned into a change.
+	 */
+	static class MatchOperation extends Operation {
+		private final SyntheticSource s;
+		private final ProjectionAnnotationModel model = new ProjectionAnnotationModel();
+		private final JavaStyleClosuresFoldingProvider provider = new JavaStyleClosuresFoldingProvider();
+		private final List<Annotation> existing = new ArrayList<Annotation>();
+		private List<Annotation> deletions;
+		private Map<Annotation, Position> additions;
+		private List<Annotation> changes;
+
+		MatchOperation(SyntheticSource s, Document document) {
+			super("Annotation diff");
+			this.s = s;
+			model.connect(document);
+			for (int i = 0; i < s.offsets.length; i++) {
+				Annotation annotation = newAnnotation();
+				model.addAnnotation(annotation, new Position(s.offsets[i], s.lengths[i]));
+				existing.add(annotation);
+			}
+		}
+
+		private Annotation newAnnotation() {
+			return provider.new JavaProjectionAnnotation(false, null, null, false);
+		}
+
+		void setUp() {
+			deletions = new ArrayList<Annotation>(existing);
+			additions = new HashMap<Annotation, Position>();
+			changes = new ArrayList<Annotation>();
+			for (int i = 0; i < s.offsets.length; i++)
+				additions.put(newAnnotation(), new Position(s.offsets[i], s.lengths[i]));
+		}
+
+		void run() {
+			JavaStyleClosuresFoldingProvider.match(deletions, additions, changes, model);
+			blackhole += changes.size() + deletions.size() + additions.size();
+		}
+	}
+
+	static String header() {
+		return pad("source", 36) + pad("operation", 24) + pad("ops/s", 12) + pad("mean us", 12) +
+		        pad("p99 us", 12) + "bytes/op";
+	}
+
+	static String measure(SyntheticSource source, Operation operation, int warmup, int iterations)
+	        throws Exception {
+		for (int i = 0; i < warmup; i++) {
+			operation.setUp();
+			operation.run();
+		}
+
+		long[] samples = new long[iterations];
+		long total = 0;
+		long allocated = 0;
+		for (int i = 0; i < iterations; i++) {
+			operation.setUp();
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			operation.run();
+			samples[i] = System.nanoTime() - start;
+			allocated += allocatedBytes() - bytes;
+			total += samples[i];
+		}
+
+		Arrays.sort(samples);
+		long p99 = samples[Math.min(iterations - 1, (int) Math.ceil(iterations * 0.99) - 1)];
+		double mean = (double) total / iterations;
+		return pad(source.description, 36) + pad(operation.name, 24) +
+		        pad(format(1e9 / mean), 12) + pad(format(mean / 1e3), 12) +
+		        pad(format(p99 / 1e3), 12) +
+		        (ALLOCATED_BYTES != null ? format((double) allocated / iterations) : "n/a");
+	}
+
+	/*
+	 * Per thread allocation counters are a HotSpot extension, looked up reflectively so that the
+	 * benchmark runs on any VM.
+	 */
+	private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+	private static final Method ALLOCATED_BYTES;
+	static {
+		Method method = null;
+		try {
+			Class<?> type = Class.forName("com.sun.management.ThreadMXBean");
+			if (type.isInstance(THREADS))
+				method = type.getMethod("getThreadAllocatedBytes", long.class);
+		} catch (Exception e) {}
+		ALLOCATED_BYTES = method;
+	}
+
+	private static long allocatedBytes() {
+		if (ALLOCATED_BYTES == null)
+			return 0;
+		try {
+			return ((Long) ALLOCATED_BYTES.invoke(THREADS, Thread.currentThread().getId()))
+			        .longValue();
+		} catch (Exception e) {
+			return 0;
+		}
+	}
+
+	private static String format(double value) {
+		return String.valueOf(Math.round(value * 10) / 10.0);
+	}
+
+	private static String pad(String value, int width) {
+		StringBuilder buffer = new StringBuilder(value);
+		while (buffer.length() < width)
+			buffer.append(' ');
+		return buffer.append(' ').toString();
+	}
+}
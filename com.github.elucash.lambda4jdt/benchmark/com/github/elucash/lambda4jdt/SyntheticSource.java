@@ -0,0 +1,118 @@
+package com.github.elucash.lambda4jdt;
+
+/**
+ * Generates a compilation unit full of closures, together with the source ranges of all its
+ * anonymous types as the Java model would report them: from the <code>new</code> keyword to the
+ * closing brace of the type body.
+ */
+class SyntheticSource {
+
+	final String source;
+	final int[] offsets;
+	final int[] lengths;
+	final String description;
+
+	private final StringBuilder buffer = new StringBuilder();
+	private final String indentUnit;
+	private int[] rangeOffsets = new int[64];
+	private int[] rangeLengths = new int[64];
+	private int count;
+	private int shape;
+
+	/**
+	 * @param closures the number of top level closures
+	 * @param depth the nesting depth of each top level closure, 1 for no nesting
+	 * @param tabs <code>true</code> to indent with tabs, <code>false</code> for 4 spaces
+	 */
+	SyntheticSource(int closures, int depth, boolean tabs) {
+		indentUnit = tabs ? "\t" : "    ";
+
+		buffer.append("package bench;\n\n");
+		buffer.append("import java.util.List;\n\n");
+		buffer.append("public class Synthetic {\n\n");
+		buffer.append(indentUnit).append("interface Closure<T> {\n");
+		buffer.append(indentUnit).append(indentUnit).append("Object apply(T value);\n");
+		buffer.append(indentUnit).append("}\n\n");
+		buffer.append(indentUnit).append("void each(Closure<String> closure) {}\n\n");
+		buffer.append(indentUnit).append("void run(final List<String> list) {\n");
+		for (int i = 0; i < closures; i++)
+			closure(depth, 2);
+		buffer.append(indentUnit).append("}\n");
+		buffer.append("}\n");
+
+		source = buffer.toString();
+		offsets = new int[count];
+		lengths = new int[count];
+		System.arraycopy(rangeOffsets, 0, offsets, 0, count);
+		System.arraycopy(rangeLengths, 0, lengths, 0, count);
+		description = closures + " closures, depth " + depth + ", " + (tabs ? "tabs" : "spaces");
+	}
+
+	/*
+	 * Alternates the closure shapes the region computation distinguishes: single parameter to a
+	 * higher order method, single return statement, void single statement and a multi statement
+	 * body. Nested closures always live in a multi statement body.
+	 */
+	private void closure(int depth, int indent) {
+		indent(indent);
+		int variant = shape++ % 4;
+		if (variant == 0)
+			buffer.append("each(");
+		else
+			buffer.append("Closure<String> c").append(shape).append(" = ");
+
+		int start = buffer.length();
+		buffer.append("new Closure<String>() {\n");
+		indent(indent + 1);
+		buffer.append("public Object apply(String value) {\n");
+		if (depth > 1) {
+			indent(indent + 2);
+			buffer.append("String trimmed = value.trim();\n");
+			closure(depth - 1, indent + 2);
+			indent(indent + 2);
+			buffer.append("return trimmed;\n");
+		} else if (variant == 1) {
+			indent(indent + 2);
+			buffer.append("return value.length();\n");
+		} else if (variant == 2) {
+			indent(indent + 2);
+			buffer.append("System.out.println(value);\n");
+			indent(indent + 2);
+			buffer.append("return null;\n");
+		} else {
+			indent(indent + 2);
+			buffer.append("if (value == null) {\n");
+			indent(indent + 3);
+			buffer.append("return null;\n");
+			indent(indent + 2);
+			buffer.append("}\n");
+			indent(indent + 2);
+			buffer.append("return value.toUpperCase();\n");
+		}
+		indent(indent + 1);
+		buffer.append("}\n");
+		indent(indent);
+		buffer.append('}');
+		addRange(start, buffer.length() - start);
+		buffer.append(variant == 0 ? ");\n" : ";\n");
+	}
+
+	private void indent(int level) {
+		for (int i = 0; i < level; i++)
+			buffer.append(indentUnit);
+	}
+
+	private void addRange(int offset, int length) {
+		if (count == rangeOffsets.length) {
+			int[] grownOffsets = new int[count * 2];
+			int[] grownLengths = new int[count * 2];
+			System.arraycopy(rangeOffsets, 0, grownOffsets, 0, count);
+			System.arraycopy(rangeLengths, 0, grownLengths, 0, count);
+			rangeOffsets = grownOffsets;
+			rangeLengths = grownLengths;
+		}
+		rangeOffsets[count] = offset;
+		rangeLengths[count] = length;
+		count++;
+	}
+}
@@ -0,0 +1,127 @@
+package com.github.elucash.lambda4jdt;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentListener;
+
+/**
+ * The range of a document the user is currently typing in. The zone grows with each edit to the
+ * lines around it, so closures adjacent to the edited one are part of it, and it is dropped once
+ * the user stops typing for {@link #QUIET_PERIOD} milliseconds. Folding updates of members inside
+ * the zone are deferred until then, so that closures near the caret are not expanded and collapsed
+ * again on every reconcile.
+ * <p>
+ * Edits are tracked on the display thread, the zone may be queried from any thread.
+ * </p>
+ */
+class EditZone implements IDocumentListener {
+
+	/** Time without edits after which the user is considered to have stopped typing */
+	static final long QUIET_PERIOD = 1500;
+
+	private IDocument document;
+
+	/* zone of the current typing burst, guarded by this */
+	private int start;
+	private int end = -1;
+	private long lastEdit;
+
+	void connect(IDocument document) {
+		disconnect();
+		this.document = document;
+		document.addDocumentListener(this);
+	}
+
+	void disconnect() {
+		if (document != null) {
+			document.removeDocumentListener(this);
+			document = null;
+		}
+		synchronized (this) {
+			end = -1;
+			lastEdit = 0;
+		}
+	}
+
+	/**
+	 * Returns whether the user is typing, that is the last edit happened within the quiet period.
+	 */
+	synchronized boolean isActive() {
+		return end >= 0 && System.currentTimeMillis() - lastEdit < QUIET_PERIOD;
+	}
+
+	/**
+	 * Returns the time until the user is considered to have stopped typing.
+	 * @return the delay in milliseconds, <code>0</code> if the user is not typing
+	 */
+	synchronized long getRemainingQuietTime() {
+		if (end < 0)
+			return 0;
+		return Math.max(0, QUIET_PERIOD - (System.currentTimeMillis() - lastEdit));
+	}
+
+	/**
+	 * Returns whether the given range intersects the zone while the user is typing.
+	 * @param offset the offset of the range
+	 * @param length the length of the range
+	 * @return <code>true</code> if updates of the range should be deferred
+	 */
+	synchronized boolean intersects(int offset, int length) {
+		return isActive() && offset <= end && offset + length >= start;
+	}
+
+	/*
+	 * @see org.eclipse.jface.text.IDocumentListener#documentAboutToBeChanged(org.eclipse.jface.text.DocumentEvent)
+	 */
+	public synchronized void documentAboutToBeChanged(DocumentEvent event) {
+		if (end < 0 || !isActive()) {
+			end = -1;
+			return;
+		}
+		// shift the zone with the edit, as the document shifts the positions of its folds
+		int editEnd = event.getOffset() + event.getLength();
+		int delta = event.getText() != null ? event.getText().length() - event.getLength() : -event
+		        .getLength();
+		if (start >= editEnd)
+			start += delta;
+		else if (start > event.getOffset())
+			start = event.getOffset();
+		if (end >= editEnd)
+			end += delta;
+		else if (end > event.getOffset())
+			end = event.getOffset();
+	}
+
+	/*
+	 * @see org.eclipse.jface.text.IDocumentListener#documentChanged(org.eclipse.jface.text.DocumentEvent)
+	 */
+	public void documentChanged(DocumentEvent event) {
+		IDocument document = event.getDocument();
+		int offset = event.getOffset();
+		int editEnd = offset + (event.getText() != null ? event.getText().length() : 0);
+		int lineStart;
+		int lineEnd;
+		try {
+			int firstLine = Math.max(0, document.getLineOfOffset(offset) - 1);
+			int lastLine = Math.min(document.getNumberOfLines() - 1, document
+			        .getLineOfOffset(editEnd) + 1);
+			lineStart = document.getLineOffset(firstLine);
+			lineEnd = document.getLineOffset(lastLine) + document.getLineLength(lastLine);
+		} catch (BadLocationException e) {
+			lineStart = offset;
+			lineEnd = editEnd;
+		}
+
+		synchronized (this) {
+			if (end < 0) {
+				start = lineStart;
+				end = lineEnd;
+			} else {
+				start = Math.min(start, lineStart);
+				end = Math.max(end, lineEnd);
+			}
+			lastEdit = System.currentTimeMillis();
+		}
+	}
+}
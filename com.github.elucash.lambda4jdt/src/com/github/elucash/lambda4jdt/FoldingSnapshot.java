@@ -0,0 +1,354 @@
+package com.github.elucash.lambda4jdt;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.Region;
+import org.osgi.framework.Bundle;
+
+/**
+ * Folding structure of a compilation unit saved across editor sessions: the collapsed state of
+ * each fold and the computed lambda projection regions. A snapshot is keyed by the handle of its
+ * Java element and only applies to content with the same hash, so an unchanged file can restore
+ * the collapsed state chosen by the user and skip scanning its closures.
+ * <p>
+ * Snapshots are compact binary files in the plugin state location, read into a heap buffer at
+ * once and closed right away, so that they can be replaced and deleted while an editor is open.
+ * Reading a snapshot marks it as used, the least recently used ones and those unused for long are
+ * pruned when snapshots are written. Layout, big endian:
+ * <pre>
+ * int magic, int version, long content hash, int content length
+ * int fold count, per fold: int offset, int length, byte flags
+ * int region entry count, per entry: int key offset, int key length, int region count,
+ *     per region: int offset, int length
+ * </pre>
+ * </p>
+ */
+class FoldingSnapshot {
+
+	static final byte COLLAPSED = 1;
+	static final byte COMMENT = 2;
+
+	private static final String BUNDLE_ID = "com.github.elucash.lambda4jdt"; //$NON-NLS-1$
+	private static final String DIRECTORY = "folding"; //$NON-NLS-1$
+	private static final int MAGIC = 0x4C344A46;
+	private static final int VERSION = 1;
+	/** Files larger than this are not snapshots written by this class */
+	private static final int MAX_FILE_SIZE = 16 * 1024 * 1024;
+	/* encoded sizes, bounding the counts read from a file by its remaining bytes */
+	private static final int FOLD_SIZE = 9;
+	private static final int ENTRY_SIZE = 12;
+	private static final int REGION_SIZE = 8;
+
+	private static final String EXTENSION = ".folds"; //$NON-NLS-1$
+	/** Number of snapshots kept */
+	private static final int MAX_SNAPSHOTS = 500;
+	/** Time in milliseconds after which an unused snapshot is deleted */
+	private static final long MAX_AGE = 30L * 24 * 60 * 60 * 1000;
+	/** Time in milliseconds between two prunings of the snapshot directory */
+	private static final long PRUNE_INTERVAL = 60L * 60 * 1000;
+	/** Time of the last pruning, guarded by the class */
+	private static long lastPrune;
+
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final long hash;
+	private final int contentLength;
+	/** Fold keys (offset and length) mapped to flags */
+	private final Map<Long, Byte> folds;
+	/** Region cache keys (source range of the anonymous type) mapped to lambda regions */
+	private final Map<Long, IRegion[]> regions;
+
+	FoldingSnapshot(long hash, int contentLength) {
+		this(hash, contentLength, new HashMap<Long, Byte>(), new HashMap<Long, IRegion[]>());
+	}
+
+	private FoldingSnapshot(long hash, int contentLength, Map<Long, Byte> folds,
+	        Map<Long, IRegion[]> regions) {
+		this.hash = hash;
+		this.contentLength = contentLength;
+		this.folds = folds;
+		this.regions = regions;
+	}
+
+	/**
+	 * Computes the 64 bit FNV-1a hash of the given content.
+	 * @param content the content
+	 * @return the hash
+	 */
+	static long hash(CharSequence content) {
+		long h = FNV_OFFSET_BASIS;
+		for (int i = 0, n = content.length(); i < n; i++) {
+			char c = content.charAt(i);
+			h = (h ^ (c & 0xFF)) * FNV_PRIME;
+			h = (h ^ (c >>> 8)) * FNV_PRIME;
+		}
+		return h;
+	}
+
+	/**
+	 * Returns whether this snapshot was taken of the given content.
+	 * @param contentHash the hash of the content, see {@link #hash(CharSequence)}
+	 * @param length the length of the content
+	 * @return <code>true</code> if the snapshot applies to the content
+	 */
+	boolean matches(long contentHash, int length) {
+		return hash == contentHash && contentLength == length;
+	}
+
+	/**
+	 * Returns the length of the content this snapshot was taken of. Comparing it is a cheap
+	 * check before the content hash is {@link #matches(long, int) verified}.
+	 * @return the content length
+	 */
+	int getContentLength() {
+		return contentLength;
+	}
+
+	void addFold(int offset, int length, boolean collapsed, boolean comment) {
+		byte flags = 0;
+		if (collapsed)
+			flags |= COLLAPSED;
+		if (comment)
+			flags |= COMMENT;
+		folds.put(key(offset, length), Byte.valueOf(flags));
+	}
+
+	/**
+	 * Returns the flags of the fold with the given range.
+	 * @param offset the fold offset
+	 * @param length the fold length
+	 * @return the flags, or <code>-1</code> if there was no such fold
+	 */
+	int getFlags(int offset, int length) {
+		Byte flags = folds.get(key(offset, length));
+		return flags != null ? flags.byteValue() : -1;
+	}
+
+	void addRegions(long key, IRegion[] foldRegions) {
+		regions.put(Long.valueOf(key), foldRegions);
+	}
+
+	Map<Long, IRegion[]> getRegions() {
+		return regions;
+	}
+
+	static int keyOffset(long key) {
+		return (int) (key >>> 32);
+	}
+
+	static int keyLength(long key) {
+		return (int) key;
+	}
+
+	private static Long key(int offset, int length) {
+		return Long.valueOf(((long) offset << 32) | (length & 0xFFFFFFFFL));
+	}
+
+	/**
+	 * Returns the snapshot file of the element with the given handle identifier.
+	 * @param handleIdentifier the handle identifier of the Java element
+	 * @return the file, or <code>null</code> if the plugin state location is not available
+	 */
+	static File fileFor(String handleIdentifier) {
+		Bundle bundle = Platform.getBundle(BUNDLE_ID);
+		if (bundle == null)
+			return null;
+		IPath location;
+		try {
+			location = Platform.getStateLocation(bundle);
+		} catch (IllegalStateException e) {
+			return null;
+		}
+		String name = Long.toHexString(hash(handleIdentifier)) + EXTENSION;
+		return location.append(DIRECTORY).append(name).toFile();
+	}
+
+	/**
+	 * Reads the snapshot from the given file.
+	 * @param file the snapshot file
+	 * @return the snapshot, or <code>null</code> if there is none or it cannot be read
+	 */
+	static FoldingSnapshot read(File file) {
+		if (file == null || !file.isFile())
+			return null;
+
+		long size = file.length();
+		if (size > MAX_FILE_SIZE)
+			return null;
+
+		DataInputStream in = null;
+		try {
+			in = new DataInputStream(new FileInputStream(file));
+			byte[] bytes = new byte[(int) size];
+			in.readFully(bytes);
+			ByteBuffer buffer = ByteBuffer.wrap(bytes);
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+				return null;
+
+			long hash = buffer.getLong();
+			int contentLength = buffer.getInt();
+
+			int foldCount = buffer.getInt();
+			if (!fits(foldCount, FOLD_SIZE, buffer))
+				return null;
+			Map<Long, Byte> folds = new HashMap<Long, Byte>(foldCount * 4 / 3 + 1);
+			for (int i = 0; i < foldCount; i++) {
+				Long key = Long.valueOf(buffer.getLong());
+				folds.put(key, Byte.valueOf(buffer.get()));
+			}
+
+			int entryCount = buffer.getInt();
+			if (!fits(entryCount, ENTRY_SIZE, buffer))
+				return null;
+			Map<Long, IRegion[]> regions = new HashMap<Long, IRegion[]>(entryCount * 4 / 3 + 1);
+			for (int i = 0; i < entryCount; i++) {
+				Long key = Long.valueOf(buffer.getLong());
+				int regionCount = buffer.getInt();
+				if (!fits(regionCount, REGION_SIZE, buffer))
+					return null;
+				IRegion[] entry = new IRegion[regionCount];
+				for (int j = 0; j < entry.length; j++)
+					entry[j] = new Region(buffer.getInt(), buffer.getInt());
+				regions.put(key, entry);
+			}
+			// the modification time orders the snapshots by use for pruning
+			file.setLastModified(System.currentTimeMillis());
+			return new FoldingSnapshot(hash, contentLength, folds, regions);
+		} catch (IOException e) {
+			return null;
+		} catch (RuntimeException e) {
+			// corrupt or foreign file, it is overwritten with the next snapshot
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {}
+			}
+		}
+	}
+
+	/**
+	 * Returns whether the given number of items of the given encoded size can be read from the
+	 * remaining bytes of the buffer.
+	 * @param count the number of items read from the file
+	 * @param size the encoded size of an item in bytes
+	 * @param buffer the buffer
+	 * @return <code>true</code> if the count is plausible
+	 */
+	private static boolean fits(int count, int size, ByteBuffer buffer) {
+		return count >= 0 && count <= buffer.remaining() / size;
+	}
+
+	/**
+	 * Writes this snapshot to the given file.
+	 * @param file the snapshot file
+	 * @throws IOException if the file cannot be written
+	 */
+	void write(File file) throws IOException {
+		File directory = file.getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create " + directory); //$NON-NLS-1$
+
+		// write aside, so that a failed write does not leave a truncated snapshot behind
+		File temporary = new File(directory, file.getName() + ".tmp"); //$NON-NLS-1$
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(
+		        temporary)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(hash);
+			out.writeInt(contentLength);
+
+			out.writeInt(folds.size());
+			for (Map.Entry<Long, Byte> fold : folds.entrySet()) {
+				out.writeLong(fold.getKey().longValue());
+				out.writeByte(fold.getValue().byteValue());
+			}
+
+			out.writeInt(regions.size());
+			for (Map.Entry<Long, IRegion[]> entry : regions.entrySet()) {
+				out.writeLong(entry.getKey().longValue());
+				IRegion[] foldRegions = entry.getValue();
+				out.writeInt(foldRegions.length);
+				for (IRegion region : foldRegions) {
+					out.writeInt(region.getOffset());
+					out.writeInt(region.getLength());
+				}
+			}
+		} finally {
+			out.close();
+		}
+
+		if (!temporary.renameTo(file)) {
+			file.delete();
+			if (!temporary.renameTo(file)) {
+				temporary.delete();
+				throw new IOException("Cannot replace " + file); //$NON-NLS-1$
+			}
+		}
+
+		if (isPruneDue())
+			prune(directory);
+	}
+
+	private static synchronized boolean isPruneDue() {
+		long now = System.currentTimeMillis();
+		if (now - lastPrune < PRUNE_INTERVAL)
+			return false;
+		lastPrune = now;
+		return true;
+	}
+
+	/**
+	 * Deletes the snapshots of the given directory not used for {@link #MAX_AGE}, and the least
+	 * recently used ones beyond {@link #MAX_SNAPSHOTS}.
+	 * @param directory the snapshot directory
+	 */
+	static void prune(File directory) {
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+
+		final long[] used = new long[files.length];
+		Integer[] order = new Integer[files.length];
+		for (int i = 0; i < files.length; i++) {
+			used[i] = files[i].lastModified();
+			order[i] = Integer.valueOf(i);
+		}
+		// most recently used first
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				long x = used[a.intValue()];
+				long y = used[b.intValue()];
+				return x > y ? -1 : x < y ? 1 : 0;
+			}
+		});
+
+		long oldest = System.currentTimeMillis() - MAX_AGE;
+		int kept = 0;
+		for (int i = 0; i < order.length; i++) {
+			int index = order[i].intValue();
+			if (!files[index].getName().endsWith(EXTENSION))
+				continue;
+			if (kept < MAX_SNAPSHOTS && used[index] >= oldest)
+				kept++;
+			else
+				files[index].delete();
+		}
+	}
+}
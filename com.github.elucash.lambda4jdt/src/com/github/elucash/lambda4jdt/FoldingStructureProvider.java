@@ -24,7 +24,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
-import com.github.elucash.lambda4jdt.RegionDemarkator.RegionHandle;
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.jdt.core.ElementChangedEvent;
 import org.eclipse.jdt.core.IClassFile;
@@ -760,8 +759,8 @@ public class FoldingStructureProvider implements IJavaFoldingStructureProvider,
         editables.initialOffset = anonymousTypeOffset;
       }
 
-      RegionDemarkator marker = new RegionDemarkator();
-      marker.initialOffset = anonymousTypeOffset;
+      RegionDemarkator marker = fMarker;
+      marker.reset(anonymousTypeOffset);
       marker.start(0);
 
       ScannerHelper scan = new ScannerHelper(anomymousTypeSource);
@@ -769,16 +768,16 @@ public class FoldingStructureProvider implements IJavaFoldingStructureProvider,
       scan.seekCorresponding(TokenNameLBRACE);
       int f = scan.offset;
 
-      RegionHandle anonymousTypeBaseNameRegion = null;
+      int anonymousTypeBaseNameRegion = -1;
 /*
-      if (scan.identifierOffset > 0 && scan.identifier != null) {
+      if (scan.identifierOffset > 0 && scan.identifierLength >= 0) {
         marker.end(scan.identifierOffset - 1);
         marker.start(scan.identifierOffset);
-        anonymousTypeBaseNameRegion = marker.end(scan.identifierOffset + scan.identifier.length);
-        marker.start(scan.identifierOffset + scan.identifier.length);
+        anonymousTypeBaseNameRegion = marker.end(scan.identifierOffset + scan.identifierLength);
+        marker.start(scan.identifierOffset + scan.identifierLength);
       }
 */
-      RegionHandle spaceBeforeClassLBrace = null;
+      int spaceBeforeClassLBrace = -1;
 
       if (anomymousTypeSource.charAt(f - 1) == ' ') {
         marker.end(f - 1);
@@ -791,7 +790,7 @@ public class FoldingStructureProvider implements IJavaFoldingStructureProvider,
 
       marker.start(f);
 
-      RegionHandle openingBraceRegion = marker.end(++f);
+      int openingBraceRegion = marker.end(++f);
       marker.start(f);
 
 /*			// 'public'
@@ -799,7 +798,7 @@ public class FoldingStructureProvider implements IJavaFoldingStructureProvider,
 			f = scan.endOffset + 1;
 			marker.end(f);
 			marker.start(f);
-			RegionHandle afterOpeningBraceWhitespace = marker.end(++f);
+			int afterOpeningBraceWhitespace = marker.end(++f);
 */
 // show(document, afterOpeningBraceWhitespace);
       // Seek parenthese opening parameter list
@@ -809,7 +808,7 @@ public class FoldingStructureProvider implements IJavaFoldingStructureProvider,
 
       marker.end(parameterListOpenParenOffset);
       marker.start(parameterListOpenParenOffset);
-      RegionHandle parameterListOpenParen = marker.end(parameterListOpenParenOffset + 1);
+      int parameterListOpenParen = marker.end(parameterListOpenParenOffset + 1);
       marker.start(parameterListOpenParenOffset + 1);
 // assert scan.identifier != null;
 //
@@ -826,13 +825,13 @@ public class FoldingStructureProvider implements IJavaFoldingStructureProvider,
       for (;;) {
         int t = scan.seekCorrespondingWithTypeParameterBrackets(TokenNameCOMMA,
             TokenNameRPAREN);
-        if (scan.identifier != null) {
+        if (scan.identifierLength >= 0) {
           paramsCount++;
           marker.end(scan.identifierOffset);
 
           if (editables != null) {
             editables.start(scan.identifierOffset);
-            editables.end(scan.identifierOffset + scan.identifier.length);
+            editables.end(scan.identifierOffset + scan.identifierLength);
           }
 
           if (t == TokenNameCOMMA) {
@@ -857,16 +856,16 @@ public class FoldingStructureProvider implements IJavaFoldingStructureProvider,
       if (!marker.started)
         marker.start(rparenOffset);
 
-      RegionHandle parameterListClosingParen = marker.end(rparenOffset + 1);
+      int parameterListClosingParen = marker.end(rparenOffset + 1);
 
       marker.start(rparenOffset + 1);
 
       // To show functional arrow `=>`
       // int arrowIndex = functionTokenIndex + 2;
-      // RegionHandle preArrowRegion = marker.end(arrowIndex);
+      // int preArrowRegion = marker.end(arrowIndex);
       // marker.start(arrowIndex);
 
-      // RegionHandle arrowRegion = marker.end(functionTokenIndex + 6);
+      // int arrowRegion = marker.end(functionTokenIndex + 6);
       // marker.start(functionTokenIndex + 6);
 
 // annotationDecorationDrawingOffsets.put((IType) fMember, anonymousTypeOffset +
@@ -879,7 +878,7 @@ public class FoldingStructureProvider implements IJavaFoldingStructureProvider,
 
       // find where we go past all throws declaration if any
       if (scan.identifierOffset > lastPreMethodOffset) {
-        lastPreMethodOffset = scan.identifierOffset + scan.identifier.length;
+        lastPreMethodOffset = scan.identifierOffset + scan.identifierLength;
         while (anomymousTypeSource.charAt(lastPreMethodOffset) == ' ') {
           lastPreMethodOffset++;
         }
@@ -897,9 +896,9 @@ public class FoldingStructureProvider implements IJavaFoldingStructureProvider,
 // marker.start(methodOpeningBraceOffset);
       }
 
-      RegionHandle preBraceRegion = marker.end(methodOpeningBraceOffset);
+      int preBraceRegion = marker.end(methodOpeningBraceOffset);
       marker.start(methodOpeningBraceOffset);
-      RegionHandle methodOpeningBrace = marker.end(methodOpeningBraceOffset + 1);
+      int methodOpeningBrace = marker.end(methodOpeningBraceOffset + 1);
 
       int methodCloseBraceOffset = -1;
       int returnOffset = -1;
@@ -959,14 +958,14 @@ public class FoldingStructureProvider implements IJavaFoldingStructureProvider,
       if (!useClauseFolding
           && anonymousTypeBaseNameRegion.length < 20
           && shouldRevealTypeNameHeuristic(anonymousTypeOffset, document)) {
-        anonymousTypeBaseNameRegion.reveal();
+        marker.reveal(anonymousTypeBaseNameRegion);
       }
 */
       // case 1: single statement returning value function with no or one parameter
       // No curly braces, no return keyword, no semicolon at end
       if (singleStatement && returnOffset > 0 && paramsCount <= 1) {
-        parameterListOpenParen.reveal();// Show opening parameter paren
-        parameterListClosingParen.reveal();// Show closing parameter paren
+        marker.reveal(parameterListOpenParen);// Show opening parameter paren
+        marker.reveal(parameterListClosingParen);// Show closing parameter paren
 
         // afterOpeningBraceWhitespace.remove();
         marker.start(methodOpeningBraceOffset); // from after opening of method body
@@ -989,10 +988,10 @@ public class FoldingStructureProvider implements IJavaFoldingStructureProvider,
       // case 2: single statement returning value function with more than one parameter
       // With parameter parentheses, no return keyword, no semicolon at end
       if (singleStatement && returnOffset > 0 && paramsCount > 1) {
-        parameterListOpenParen.reveal();// Show opening parameter paren
-        parameterListClosingParen.reveal();// Show closing parameter paren
+        marker.reveal(parameterListOpenParen);// Show opening parameter paren
+        marker.reveal(parameterListClosingParen);// Show closing parameter paren
 
-        // openingBraceRegion.reveal();// Show up openingBrace
+        // marker.reveal(openingBraceRegion);// Show up openingBrace
 
         marker.start(methodOpeningBraceOffset); // from after opening of method body
         // brace
@@ -1016,8 +1015,8 @@ public class FoldingStructureProvider implements IJavaFoldingStructureProvider,
       // DEAD CODE SEE CHECK ABOVE
       if (singleStatement && returnOffset < 0) {
         if (paramsCount > 1) {
-          parameterListOpenParen.reveal();// Show opening parameter paren
-          parameterListClosingParen.reveal();// Show closing parameter paren
+          marker.reveal(parameterListOpenParen);// Show opening parameter paren
+          marker.reveal(parameterListClosingParen);// Show closing parameter paren
         }
 
         boolean emptyBody = lastBraceBlockEnd < 0 && statementTerminator < 0;
@@ -1028,7 +1027,7 @@ public class FoldingStructureProvider implements IJavaFoldingStructureProvider,
                 methodCloseBraceOffset).trim().equals(";");
 
         if (emptyBody) {
-          methodOpeningBrace.reveal();// Show up openingBrace
+          marker.reveal(methodOpeningBrace);// Show up openingBrace
 
           marker.start(methodOpeningBraceOffset + 1); // from after opening of method body
           marker.end(anonymousTypeLength - 1);// to end on anonymous type definition
@@ -1036,7 +1035,7 @@ public class FoldingStructureProvider implements IJavaFoldingStructureProvider,
         }
         else if (singleEmptyStatement) {
 
-          methodOpeningBrace.reveal();// Show up openingBrace
+          marker.reveal(methodOpeningBrace);// Show up openingBrace
           marker.start(methodOpeningBraceOffset + 1); // from after opening of method body
           // cutTab(anomymousTypeSource, marker, fnw - 1);
           marker.end(statementTerminator);// to begin of statement
@@ -1067,17 +1066,17 @@ public class FoldingStructureProvider implements IJavaFoldingStructureProvider,
       // (maybe? with return keyword hidden and no semicolon at and for non-void function)
       if (!singleStatement) {
         if (paramsCount > 0) {
-          parameterListOpenParen.reveal();// Show opening parameter paren
-          parameterListClosingParen.reveal();// Show closing parameter paren
+          marker.reveal(parameterListOpenParen);// Show opening parameter paren
+          marker.reveal(parameterListClosingParen);// Show closing parameter paren
         }
 
         if (hasPreBraceRegion) {
-          preBraceRegion.reveal();
+          marker.reveal(preBraceRegion);
         }
 
         // Show up method openingBrace
-        // openingBraceRegion.reveal();
-        methodOpeningBrace.reveal();
+        // marker.reveal(openingBraceRegion);
+        marker.reveal(methodOpeningBrace);
 
 // marker.start(methodOpeningBraceOffset); // from before opening of method body
 // marker.end(methodOpeningBraceOffset + 1);
@@ -1099,24 +1098,24 @@ public class FoldingStructureProvider implements IJavaFoldingStructureProvider,
 
         marker.start(statementTerminator + 1); // hide lines from body end
         // to anonymous class end (exclusive)
-        RegionHandle closureEnd = marker.end(methodCloseBraceOffset + 1);
+        int closureEnd = marker.end(methodCloseBraceOffset + 1);
 
         eatUpExtraTabsOnEachLine(anomymousTypeSource, marker, scan, lastPreMethodOffset,
             methodCloseBraceOffset);
 
         try {
           if (useClauseFolding) {
-            // spaceBeforeClassLBrace.reveal();
+            // marker.reveal(spaceBeforeClassLBrace);
             // arrowRegion.offset++;
             // arrowRegion.length--;
-            // arrowRegion.reveal();// ?
+            // marker.reveal(arrowRegion);// ?
 
 // if (editables != null)
 // editables.clearAll();
 
 // if (paramsCount == 0) {
-// parameterListOpenParen.reveal();// Show opening parameter paren
-// parameterListClosingParen.reveal();// Show closing parameter paren
+// marker.reveal(parameterListOpenParen);// Show opening parameter paren
+// marker.reveal(parameterListClosingParen);// Show closing parameter paren
 // }
             // marker.printRegionHandles(document);
 
@@ -1139,11 +1138,11 @@ public class FoldingStructureProvider implements IJavaFoldingStructureProvider,
       // }
       // Show param parens when there's no params
       if (paramsCount == 0) {
-        parameterListOpenParen.reveal();// Show opening parameter paren
-        parameterListClosingParen.reveal();// Show closing parameter paren
+        marker.reveal(parameterListOpenParen);// Show opening parameter paren
+        marker.reveal(parameterListClosingParen);// Show closing parameter paren
       }
 
-      // arrowRegion.reveal();
+      // marker.reveal(arrowRegion);
 
       IRegion[] resultingArray = marker.toProcessedArray();
 
@@ -1340,6 +1339,11 @@ public class FoldingStructureProvider implements IJavaFoldingStructureProvider,
   private volatile int fUpdatingCount = 0;
   private ProjectionViewer viewer;
 
+  /**
+   * Reusable region collector for lambda projection regions, only used on the display thread.
+   */
+  private final RegionDemarkator fMarker = new RegionDemarkator();
+
   /**
    * Creates a new folding provider. It must be {@link #install(ITextEditor, ProjectionViewer)
    * installed} on an editor/viewer pair before it can be used, and {@link #uninstall()
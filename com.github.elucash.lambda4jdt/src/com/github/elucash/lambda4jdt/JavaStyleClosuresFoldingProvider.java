@@ -11,6 +11,8 @@
 package com.github.elucash.lambda4jdt;
 
 import static org.eclipse.jdt.core.compiler.ITerminalSymbols.*;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -20,12 +22,26 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
-import com.github.elucash.lambda4jdt.RegionDemarkator.RegionHandle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import org.eclipse.core.runtime.Assert;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jdt.core.ElementChangedEvent;
 import org.eclipse.jdt.core.IClassFile;
 import org.eclipse.jdt.core.ICompilationUnit;
@@ -40,6 +56,7 @@ import org.eclipse.jdt.core.IParent;
 import org.eclipse.jdt.core.ISourceRange;
 import org.eclipse.jdt.core.ISourceReference;
 import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.ITypeRoot;
 import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.JavaModelException;
 import org.eclipse.jdt.core.ToolFactory;
@@ -55,11 +72,13 @@ import org.eclipse.jdt.internal.ui.javaeditor.EditorUtility;
 import org.eclipse.jdt.internal.ui.javaeditor.JavaEditor;
 import org.eclipse.jdt.internal.ui.text.DocumentCharacterIterator;
 import org.eclipse.jdt.ui.PreferenceConstants;
+import org.eclipse.jdt.ui.SharedASTProvider;
 import org.eclipse.jdt.ui.text.folding.IJavaFoldingStructureProvider;
 import org.eclipse.jdt.ui.text.folding.IJavaFoldingStructureProviderExtension;
 import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
 import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.Position;
 import org.eclipse.jface.text.Region;
@@ -73,8 +92,10 @@ import org.eclipse.jface.text.source.projection.ProjectionAnnotationModel;
 import org.eclipse.jface.text.source.projection.ProjectionViewer;
 import org.eclipse.swt.custom.StyledText;
 import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.graphics.GC;
 import org.eclipse.swt.graphics.Point;
+import org.eclipse.ui.editors.text.EditorsUI;
 import org.eclipse.ui.texteditor.IDocumentProvider;
 import org.eclipse.ui.texteditor.ITextEditor;
 
@@ -91,9 +112,11 @@ import org.eclipse.ui.texteditor.ITextEditor;
 public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructureProvider,
         IJavaFoldingStructureProviderExtension {
 
-	private static final String FUNCTION_RELATION_TOKEN = "/* => */";
-
-	private static final String FUNCTION_RELATION_TOKEN_ONELINE = "// => ";
+	/**
+	 * Preference whether lambda regions are computed from the node ranges of the reconciled AST,
+	 * falling back to scanning closures which the AST does not describe. Off by default.
+	 */
+	static final String AST_REGIONS = "com.github.elucash.lambda4jdt.astRegions"; //$NON-NLS-1$
 
 	/**
 	 * A context that contains the information needed to compute the folding structure of an
@@ -109,9 +132,17 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 
 		private IType fFirstType;
 		private boolean fHasHeaderComment;
-		private LinkedHashMap<JavaProjectionAnnotation, Position> fMap = new LinkedHashMap<JavaProjectionAnnotation, Position>();
+		private Map<JavaProjectionAnnotation, Position> fMap = new LinkedHashMap<JavaProjectionAnnotation, Position>();
 		private IScanner fScanner;
+		private IProgressMonitor fMonitor;
 		boolean initial;
+		/** Folding state saved for the unchanged input, <code>null</code> if none */
+		private FoldingSnapshot fSnapshot;
+
+		/** Members to recompute, <code>null</code> if the whole input is recomputed */
+		private Set<IJavaElement> fScope;
+		/** Elements reported as removed by the delta this context was created for */
+		private Set<IJavaElement> fRemovedElements;
 
 		private FoldingStructureComputationContext(IDocument document,
 		        ProjectionAnnotationModel model, boolean allowCollapsing, IScanner scanner) {
@@ -145,6 +176,112 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 			fHasHeaderComment = true;
 		}
 
+		/**
+		 * Restricts this context to the given members. Only these members and their children are
+		 * recomputed, and only the existing annotations of these members (or of removed elements)
+		 * take part in the reconciliation against the annotation model.
+		 * @param scope the members to recompute
+		 * @param removed the elements removed from the input
+		 */
+		private void setScope(Set<IJavaElement> scope, Set<IJavaElement> removed) {
+			fScope = scope;
+			fRemovedElements = removed;
+		}
+
+		/**
+		 * Returns <code>true</code> if only a part of the input is recomputed by this context.
+		 * @return <code>true</code> for a delta-scoped computation
+		 */
+		boolean isIncremental() {
+			return fScope != null;
+		}
+
+		private Set<IJavaElement> getScope() {
+			return fScope;
+		}
+
+		private void setMonitor(IProgressMonitor monitor) {
+			fMonitor = monitor;
+		}
+
+		/**
+		 * Throws an {@link OperationCanceledException} if the computation was canceled.
+		 */
+		private void checkCanceled() {
+			if (fMonitor != null && fMonitor.isCanceled())
+				throw new OperationCanceledException();
+		}
+
+		/**
+		 * Creates a context collecting the projection ranges of a part of the input on another
+		 * thread. It shares the state of this context except for the collected ranges and the
+		 * scanner.
+		 * @param scanner the scanner confined to the thread of the new context
+		 * @return the new context
+		 */
+		private FoldingStructureComputationContext fork(IScanner scanner) {
+			FoldingStructureComputationContext fork = new FoldingStructureComputationContext(
+			        fDocument, fModel, fAllowCollapsing, scanner);
+			fork.fFirstType = fFirstType;
+			fork.fHasHeaderComment = fHasHeaderComment;
+			fork.fMonitor = fMonitor;
+			fork.initial = initial;
+			return fork;
+		}
+
+		/**
+		 * Adds the projection ranges collected by a forked context.
+		 * @param fork the forked context
+		 */
+		private void join(FoldingStructureComputationContext fork) {
+			fMap.putAll(fork.fMap);
+		}
+
+		/**
+		 * Orders the collected projection ranges by offset. Ranges with the same offset keep
+		 * their order, so that enclosing elements stay ahead of their children.
+		 */
+		private void sortByOffset() {
+			List<Map.Entry<JavaProjectionAnnotation, Position>> entries = new ArrayList<Map.Entry<JavaProjectionAnnotation, Position>>(
+			        fMap.entrySet());
+			Collections.sort(entries, new Comparator<Map.Entry<JavaProjectionAnnotation, Position>>() {
+				public int compare(Map.Entry<JavaProjectionAnnotation, Position> e1,
+				        Map.Entry<JavaProjectionAnnotation, Position> e2) {
+					int o1 = e1.getValue().getOffset();
+					int o2 = e2.getValue().getOffset();
+					return o1 < o2 ? -1 : o1 == o2 ? 0 : 1;
+				}
+			});
+			Map<JavaProjectionAnnotation, Position> sorted = new LinkedHashMap<JavaProjectionAnnotation, Position>();
+			for (Map.Entry<JavaProjectionAnnotation, Position> entry : entries)
+				sorted.put(entry.getKey(), entry.getValue());
+			fMap = sorted;
+		}
+
+		/**
+		 * Seals the computed structure, so that it can be handed over to the display thread as an
+		 * immutable snapshot. No projection ranges may be added afterwards.
+		 */
+		private void seal() {
+			fMap = Collections.unmodifiableMap(fMap);
+		}
+
+		/**
+		 * Returns <code>true</code> if the given element or any of its ancestors is recomputed or
+		 * removed. Always <code>true</code> for a full computation.
+		 * @param element the element to test
+		 * @return <code>true</code> if folding of <code>element</code> is reconciled by this context
+		 */
+		private boolean isInScope(IJavaElement element) {
+			if (fScope == null)
+				return true;
+			for (IJavaElement e = element; e != null; e = e.getParent()) {
+				if (fScope.contains(e) || fRemovedElements.contains(e))
+					return true;
+			}
+			return false;
+		}
+
 		/**
 		 * Returns <code>true</code> if newly created folding regions may be collapsed,
 		 * <code>false</code> if not. This is usually <code>false</code> when updating the folding
@@ -262,7 +399,8 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 
 		void setElement(IJavaElement element) {
 			fJavaElement = element;
-			closurable = findLambdaMethodIn(fJavaElement) != null;
+			// annotations may be created without an element, see the constructor
+			closurable = element != null && findLambdaMethod(element) != null;
 		}
 
 		boolean isComment() {
@@ -286,21 +424,44 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 		public void draw(Annotation annotation, GC gc, StyledText textWidget, int offset,
 		        int length, Color color) {
 
-			if (fIsComment || !closurable)
-				throw new UnsupportedOperationException();
+			boolean lambda = !fIsComment && closurable;
+			if (!(isCollapsed() || (lambda && isCollapsedByDefault)))
+				return;
 
-			// TEMP
-			if (isCollapsed() || isCollapsedByDefault) {
-				if (gc != null) {
-					// Do not draw anything
-				} else
+			if (gc == null) {
+				// clearing request, only bother about lines in the viewport
+				if (LineGeometry.isVisible(textWidget, offset))
 					textWidget.redrawRange(offset, length, true);
+				return;
 			}
+
+			int line = fLineGeometry.begin(gc, textWidget, offset);
+			if (line < 0)
+				return; // outside of the clipping area
+
+			// TEMP lambdas do not draw anything
+			if (!lambda)
+				CustomFoldingDrawing.drawCollapsedBox(fLineGeometry, gc, textWidget, line, offset,
+				        color);
 		}
 		boolean closurable;
 
 	}
 
+	/**
+	 * Returns the single method of the given element if it is a lambda, that is an anonymous type
+	 * declaring a single method only. Anonymous types classified by the last reconcile are answered
+	 * from the classification, the Java model is only consulted for the method of a lambda and for
+	 * types the classification does not know.
+	 * @param element the element
+	 * @return the method of the lambda, or <code>null</code> if the element is no lambda
+	 */
+	private IMethod findLambdaMethod(IJavaElement element) {
+		if (fLambdaTypes.isLambda(element, getDocument()) == Boolean.FALSE)
+			return null;
+		return findLambdaMethodIn(element);
+	}
+
 	static IMethod findLambdaMethodIn(IJavaElement element) {
 		try {
 			if (element.getElementType() == IJavaElement.TYPE) {
@@ -309,9 +470,8 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 					IJavaElement[] c = t.getChildren();
 					if (c.length == 1 && c[0].getElementType() == IJavaElement.METHOD) {
 						IMethod m = (IMethod) c[0];
-						String source = m.getSource();
-// boolean hasToken1 = source.contains(FUNCTION_RELATION_TOKEN);
-// boolean hasToken2 = source.contains(FUNCTION_RELATION_TOKEN_ONELINE);
+// boolean hasToken1 = source.contains(LambdaRegionComputer.FUNCTION_RELATION_TOKEN);
+// boolean hasToken2 = source.contains(LambdaRegionComputer.FUNCTION_RELATION_TOKEN_ONELINE);
 // if (hasToken1 ^ hasToken2)
 						return m;
 // IAnnotation[] annotations = m.getAnnotations();
@@ -412,15 +572,14 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 			        (delta.getFlags() & (IJavaElementDelta.F_CONTENT | IJavaElementDelta.F_CHILDREN)) != 0) {
 
 				CompilationUnit unitAST = e.getDelta().getCompilationUnitAST();
+				if (unitAST != null)
+					fLambdaTypes.update(unitAST, getDocument(), fAstRegions);
 				if (shouldIgnoreDelta(unitAST, delta))
 					return;
 
-				fUpdatingCount++;
-				try {
-					update(createContext(false));
-				} finally {
-					fUpdatingCount--;
-				}
+				FoldingUpdateJob job = fUpdateJob;
+				if (job != null)
+					job.post(delta);
 			}
 		}
 
@@ -505,6 +664,232 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 		}
 	}
 
+	/**
+	 * Computes the folding structure for element deltas off the display thread and applies it on
+	 * the display thread with a single batched annotation model modification. Deltas arriving while
+	 * a computation is pending or running are merged into one follow-up computation, a running
+	 * computation is canceled in favor of it.
+	 * <p>
+	 * Bursts of deltas are coalesced for {@link #COALESCE_DELAY} milliseconds. Members inside the
+	 * {@link EditZone edit zone} are deferred until the user stops typing, members outside of it are
+	 * updated right away.
+	 * </p>
+	 */
+	private final class FoldingUpdateJob extends Job {
+
+		/** Delay by which a computation waits for further deltas */
+		private static final long COALESCE_DELAY = 100;
+
+		/** Scanner confined to the job thread */
+		private final IScanner fScanner = ToolFactory.createScanner(true, false, false, false);
+
+		/* pending work, guarded by this */
+		private boolean fFullUpdate;
+		private Set<IJavaElement> fScope = new LinkedHashSet<IJavaElement>();
+		private Set<IJavaElement> fRemoved = new HashSet<IJavaElement>();
+		/* work deferred until the user stops typing, guarded by this */
+		private boolean fDeferredFullUpdate;
+		private Set<IJavaElement> fDeferred = new LinkedHashSet<IJavaElement>();
+
+		FoldingUpdateJob() {
+			super("Lambda4jdt folding update"); //$NON-NLS-1$
+			setSystem(true);
+			setPriority(Job.SHORT);
+		}
+
+		/**
+		 * Merges the delta into the pending work and (re)schedules the computation.
+		 * @param delta the delta of the input element
+		 */
+		void post(IJavaElementDelta delta) {
+			Set<IJavaElement> scope = new LinkedHashSet<IJavaElement>();
+			Set<IJavaElement> removed = new HashSet<IJavaElement>();
+			boolean fullUpdate = !collectScope(delta, scope, removed);
+			boolean typing = fEditZone.isActive();
+			synchronized (this) {
+				fRemoved.addAll(removed);
+				if (fullUpdate) {
+					if (typing)
+						fDeferredFullUpdate = true;
+					else
+						fFullUpdate = true;
+				} else {
+					for (IJavaElement element : scope) {
+						if (typing && isInEditZone(element))
+							fDeferred.add(element);
+						else
+							fScope.add(element);
+					}
+				}
+			}
+			cancel();
+			schedule(COALESCE_DELAY);
+		}
+
+		private boolean isInEditZone(IJavaElement element) {
+			if (!(element instanceof ISourceReference))
+				return false;
+			try {
+				ISourceRange range = ((ISourceReference) element).getSourceRange();
+				return range != null && fEditZone.intersects(range.getOffset(), range.getLength());
+			} catch (JavaModelException e) {
+				return false;
+			}
+		}
+
+		/**
+		 * Puts work that could not be applied back into the pending work and schedules it again,
+		 * unless this job has been retired by disabling the provider.
+		 */
+		private void requeue(boolean fullUpdate, Set<IJavaElement> scope, Set<IJavaElement> removed) {
+			synchronized (this) {
+				fFullUpdate |= fullUpdate;
+				fScope.addAll(scope);
+				fRemoved.addAll(removed);
+			}
+			if (isCurrent())
+				schedule(COALESCE_DELAY);
+		}
+
+		/**
+		 * Returns whether this is the job of the current installation. Each enablement of the
+		 * provider creates a new job, so a computation of a retired job must not be applied.
+		 */
+		private boolean isCurrent() {
+			return fUpdateJob == this;
+		}
+
+		/**
+		 * Moves the deferred work into the pending work once the user stopped typing.
+		 * @return the time until the deferred work is due, <code>0</code> if there is none left
+		 */
+		private synchronized long releaseDeferred() {
+			if (!fDeferredFullUpdate && fDeferred.isEmpty())
+				return 0;
+			long remaining = fEditZone.getRemainingQuietTime();
+			if (remaining > 0)
+				return remaining;
+			fFullUpdate |= fDeferredFullUpdate;
+			fScope.addAll(fDeferred);
+			fDeferredFullUpdate = false;
+			fDeferred = new LinkedHashSet<IJavaElement>();
+			return 0;
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			if (!isCurrent())
+				return Status.OK_STATUS;
+
+			long deferral = releaseDeferred();
+			if (deferral > 0)
+				schedule(deferral);
+
+			boolean fullUpdate;
+			Set<IJavaElement> scope;
+			Set<IJavaElement> removed;
+			synchronized (this) {
+				fullUpdate = fFullUpdate;
+				scope = fScope;
+				removed = fRemoved;
+				fFullUpdate = false;
+				fScope = new LinkedHashSet<IJavaElement>();
+				fRemoved = new HashSet<IJavaElement>();
+			}
+			if (!fullUpdate && scope.isEmpty() && removed.isEmpty())
+				return Status.OK_STATUS;
+
+			final FoldingStructureComputationContext ctx = createContext(false, fScanner);
+			if (ctx == null)
+				return Status.OK_STATUS;
+
+			final long stamp = getModificationStamp(ctx.getDocument());
+			try {
+				if (!fullUpdate)
+					restrictToScope(ctx, scope, removed);
+				ctx.setMonitor(monitor);
+				computeFoldingStructure(ctx);
+				ctx.checkCanceled();
+				ctx.seal();
+			} catch (OperationCanceledException e) {
+				requeue(fullUpdate, scope, removed);
+				return Status.CANCEL_STATUS;
+			} finally {
+				fScanner.setSource(null);
+			}
+
+			Display display = getDisplay();
+			if (display == null)
+				return Status.OK_STATUS;
+
+			final boolean[] stale = new boolean[1];
+			display.syncExec(new Runnable() {
+				public void run() {
+					// the provider may have been disabled and enabled again meanwhile
+					if (!isInstalled() || !isCurrent() || getModel() != ctx.getModel())
+						return;
+					// positions were computed for an outdated document
+					if (getModificationStamp(ctx.getDocument()) != stamp) {
+						stale[0] = true;
+						return;
+					}
+					applyFoldingStructure(ctx);
+				}
+			});
+
+			if (stale[0])
+				requeue(fullUpdate, scope, removed);
+
+			return Status.OK_STATUS;
+		}
+	}
+
+	/**
+	 * Verifies off the display thread that the snapshot applied when the input was opened was taken
+	 * of its content. Opening only compares the content length, hashing the content is left to this
+	 * job. A snapshot of other content is deleted and the folding structure is initialized again
+	 * without it.
+	 */
+	private final class SnapshotVerificationJob extends Job {
+
+		private final File fFile;
+		private final FoldingSnapshot fSnapshot;
+		private final IDocument fDocument;
+		private final String fContent;
+
+		SnapshotVerificationJob(File file, FoldingSnapshot snapshot, IDocument document) {
+			super("Lambda4jdt folding snapshot verification"); //$NON-NLS-1$
+			setSystem(true);
+			setPriority(Job.DECORATE);
+			fFile = file;
+			fSnapshot = snapshot;
+			fDocument = document;
+			fContent = document.get();
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			if (fSnapshot.matches(FoldingSnapshot.hash(fContent), fContent.length()))
+				return Status.OK_STATUS;
+
+			fFile.delete();
+			Display display = getDisplay();
+			if (display == null)
+				return Status.OK_STATUS;
+
+			display.asyncExec(new Runnable() {
+				public void run() {
+					// the provider may have been disabled or switched to another input meanwhile
+					if (!isInstalled() || fSnapshotVerification != SnapshotVerificationJob.this ||
+					        getDocument() != fDocument)
+						return;
+					fSnapshotVerification = null;
+					fRegionCache.clear();
+					initialize(false);
+				}
+			});
+			return Status.OK_STATUS;
+		}
+	}
+
 	/**
 	 * Projection position that will return two foldable regions: one folding away the region from
 	 * after the '/**' to the beginning of the content, the other from after the first content line
@@ -636,9 +1021,6 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 		private IMember fMember;
 		private IMethod lambdaMethod;
 
-// private IRegion[] cachedStructure;
-// private String cachedSourceForCheck;
-
 		public JavaElementPosition(int offset, int length, IMember member, IMethod lambdaMethod) {
 			super(offset, length);
 			Assert.isNotNull(member);
@@ -665,7 +1047,7 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 				IMethod foldedMethod = lambdaMethod;
 
 				if (foldedMethod != null && !foldedMethod.exists()) {
-					foldedMethod = findLambdaMethodIn(fMember);
+					foldedMethod = findLambdaMethod(fMember);
 					if (foldedMethod != null) {
 						lambdaMethod = foldedMethod;
 					}
@@ -715,347 +1097,44 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 		private IRegion[] computeFunctionRegions(IDocument document, ISourceRange sourceRange,
 		        RegionDemarkator editables) throws BadLocationException {
 
-// String sat = null;
-//			
-// try {
-// sat = ((IType) foldedMethod.getParent()).getSource();
-// sourceRange = ((IType) foldedMethod.getParent()).getSourceRange();
-// } catch (JavaModelException e1) {}
-//
 			int anonymousTypeOffset = sourceRange.getOffset();
 			int anonymousTypeLength = sourceRange.getLength();
 
-			String anomymousTypeSource = document.get(anonymousTypeOffset, anonymousTypeLength);
-
-			// String anomymousTypeSource = foldedMethod.getSource();
-// if (cachedStructure != null && anomymousTypeSource.equals(cachedSourceForCheck))
-// return cachedStructure;
-
-// int functionMethodOffset = foldedMethod.getSourceRange().getOffset();
-
-			if (editables != null) {
-				editables.initialOffset = anonymousTypeOffset;
-			}
-
-			RegionDemarkator marker = new RegionDemarkator();
-			marker.initialOffset = anonymousTypeOffset;
-			marker.start(0);
-
-			ScannerHelper scan = new ScannerHelper(anomymousTypeSource);
-
-			scan.seekCorresponding(TokenNameLBRACE);
-			int f = scan.offset;
-
-			marker.end(f);
-			marker.start(f);
-
-			RegionHandle openingBraceRegion = marker.end(++f);
-			marker.start(f);
-
-/*			// 'public'
-			scan.seek(TokenNamepublic);
-			f = scan.endOffset + 1;
-			marker.end(f);
-			marker.start(f);
-			RegionHandle afterOpeningBraceWhitespace = marker.end(++f);
-*/
-// show(document, afterOpeningBraceWhitespace);
-			// Seek parenthese opening parameter list
-			scan.seekCorresponding(TokenNameLPAREN);
-
-			int parameterListOpenParenOffset = scan.offset;
-
-			marker.end(parameterListOpenParenOffset);
-			marker.start(parameterListOpenParenOffset);
-			RegionHandle parameterListOpenParen = marker.end(parameterListOpenParenOffset + 1);
-			marker.start(parameterListOpenParenOffset + 1);
-// assert scan.identifier != null;
-//
-// int methodNameIdentifierOffset = scan.identifierOffset;
-//
-// marker.end(methodNameIdentifierOffset - 1);
-// // marker.start(methodNameIdentifierOffset - 1);
-// // marker.end(methodNameIdentifierOffset);
-//
-// marker.start(methodNameIdentifierOffset);
-
-			int paramsCount = 0;
-
-			for (;;) {
-				int t = scan.seekCorrespondingWithTypeParameterBrackets(TokenNameCOMMA,
-				        TokenNameRPAREN);
-				if (scan.identifier != null) {
-					paramsCount++;
-					marker.end(scan.identifierOffset);
-
-					if (editables != null) {
-						editables.start(scan.identifierOffset);
-						editables.end(scan.identifierOffset + scan.identifier.length);
-					}
-
-					if (t == TokenNameCOMMA) {
-						scan.seekAnyExcept(TokenNameWHITESPACE);
-						marker.start(scan.offset);
-					}
-				}
-
-				if (t == TokenNameRPAREN || t < 0) {
-					break;
-				}
-			}
-
-			int rparenOffset = scan.offset;
-
-			if (!marker.started)
-				marker.start(rparenOffset);
-
-			RegionHandle parameterListClosingParen = marker.end(rparenOffset + 1);
-
-			marker.start(rparenOffset + 1);
-
-			int lastPreMethodOffset = rparenOffset + 1;
-
-// // To show functional arrow `=>`
-// int arrowIndex = functionTokenIndex + 2;
-// RegionHandle preArrowRegion = marker.end(arrowIndex);
-// marker.start(arrowIndex);
-//
-// RegionHandle arrowRegion = marker.end(functionTokenIndex + 6);
-// marker.start(functionTokenIndex + 6);
-
-// annotationDecorationDrawingOffsets.put((IType) fMember, anonymousTypeOffset +
-// functionTokenIndex + 3);
-
-			scan.seekCorresponding(TokenNameLBRACE);
-
-// // Start searching for lines a new
-// scan.lineEnds.clear();
-
-			int methodOpeningBraceOffset = scan.offset;
-
-			// find where we go past all throws declaration if any
-			if (scan.identifierOffset > lastPreMethodOffset) {
-				lastPreMethodOffset = scan.identifierOffset + scan.identifier.length;
-				while (anomymousTypeSource.charAt(lastPreMethodOffset) == ' ') {
-					lastPreMethodOffset++;
-				}
-			}
-
-			int indexOfArrowComment = anomymousTypeSource.indexOf(FUNCTION_RELATION_TOKEN);
-
-			if (indexOfArrowComment >= lastPreMethodOffset &&
-			        indexOfArrowComment < methodOpeningBraceOffset)
-				lastPreMethodOffset = indexOfArrowComment + FUNCTION_RELATION_TOKEN.length();
-
-			int oneLineTokenIndex = anomymousTypeSource.indexOf(FUNCTION_RELATION_TOKEN_ONELINE);
-			if (oneLineTokenIndex >= lastPreMethodOffset) {
-				do {
-					char c = anomymousTypeSource.charAt(oneLineTokenIndex);
-					if (c == '\n' || c == '\r')
-						break;
-
-					oneLineTokenIndex++;
-				} while (oneLineTokenIndex < methodOpeningBraceOffset);
-				lastPreMethodOffset = oneLineTokenIndex;
-			}
-
-			// and hide it
-
-			boolean hasPreBraceRegion = lastPreMethodOffset < methodOpeningBraceOffset;
-			if (hasPreBraceRegion) {
-				marker.end(lastPreMethodOffset);
-				marker.start(lastPreMethodOffset);
-// preBraceRegion = marker.end(methodOpeningBraceOffset);
-// marker.start(methodOpeningBraceOffset);
+			if (editables == null) {
+				IRegion[] cached = fRegionCache.get(document, anonymousTypeOffset,
+				        anonymousTypeLength);
+				if (cached != null)
+					return cached;
 			}
 
-			RegionHandle preBraceRegion = marker.end(methodOpeningBraceOffset);
-			marker.start(methodOpeningBraceOffset);
-			RegionHandle methodOpeningBrace = marker.end(methodOpeningBraceOffset + 1);
-
-			int methodCloseBraceOffset = -1;
-			int returnOffset = -1;
-			boolean singleStatement = true;
-			int statementTerminator = -1;
-			int firstNonWhitespace = -1;
-			int lastBraceBlockEnd = -1;
-
-			bodyScanLoop: for (;;) {
-				int t = scan
-				        .seekCorresponding(TokenNameSEMICOLON, TokenNameRBRACE, TokenNamereturn);
-
-				if (scan.wasFlowControlStatement)
-					singleStatement = false;
-
-				lastBraceBlockEnd = scan.lastBraceBlockEnd;
-
-				if (firstNonWhitespace < 0)
-					firstNonWhitespace = scan.firstNonWhitespace;
-
-				swicher: switch (t) {
-				case TokenNameSEMICOLON:
-					if (statementTerminator > 0 && singleStatement)
-						singleStatement = false;
-
-					statementTerminator = scan.offset;
-					continue bodyScanLoop;
-
-				case TokenNamereturn:
-					returnOffset = scan.offset;
-					continue bodyScanLoop;
-
-				case TokenNameRBRACE:
-					methodCloseBraceOffset = scan.offset;
-				}
-
-				break;
-			}
+			String anomymousTypeSource = document.get(anonymousTypeOffset, anonymousTypeLength);
 
-			if (lastBraceBlockEnd > statementTerminator) {
-				statementTerminator = lastBraceBlockEnd;
-				singleStatement = false;
+			boolean useClauseFolding;
+			try {
+				useClauseFolding = LambdaRegionComputer.isSingleParameterToHigherOrderMethod(
+				        new DocumentCharSequence(document), anonymousTypeOffset, anonymousTypeLength);
+			} catch (IndexOutOfBoundsException e) {
+				throw new BadLocationException(e.getMessage());
 			}
 
-			boolean useClauseFolding = wheretherAnonymousTypeIsSingleParameterToHigherOrderMethod(
-			        document, anonymousTypeOffset, anonymousTypeLength);
-
-			if (singleStatement && !(useClauseFolding && returnOffset < 0)) {
-
-				if (paramsCount > 0) {
-					parameterListOpenParen.reveal();// Show opening parameter paren
-					parameterListClosingParen.reveal();// Show closing parameter paren
-				}
-
-				// Show up method openingBrace
-				methodOpeningBrace.reveal();
-
-				if (returnOffset > 0) {
-
-					marker.start(methodOpeningBraceOffset + 1); // from after opening of method body
-					marker.end(returnOffset + 7); // to end of return keyword
-
-					marker.start(statementTerminator);// From before last semicolon
-					marker.end(anonymousTypeLength - 1);// to end on anonymous type definition
-
-				} else if (lastBraceBlockEnd < 0 && statementTerminator < 0) {
-
-					marker.start(methodOpeningBraceOffset + 1); // from after opening of method body
-					marker.end(anonymousTypeLength - 1);// to end on anonymous type definition
-
-				} else {
-					// openingBraceRegion.reveal();// Show up openingBrace
-					marker.start(methodOpeningBraceOffset + 1); // from after opening of method body
-					marker.end(firstNonWhitespace);// to begin of statement
-
-					marker.start(statementTerminator + 1);// From before last semicolon
-					marker.end(anonymousTypeLength - 1);// to end on anonymous type definition
-					// marker.start(statementTerminator + 1);// From after last semicolon
-					// marker.end(anonymousTypeLength - 1); // to before final closing brace
-				}
-			} else {
-
-				if (paramsCount > 0) {
-					parameterListOpenParen.reveal();// Show opening parameter paren
-					parameterListClosingParen.reveal();// Show closing parameter paren
-				}
-
-				if (hasPreBraceRegion) {
-					preBraceRegion.reveal();
-				}
-
-				// Show up method openingBrace
-				methodOpeningBrace.reveal();
-
-// marker.start(methodOpeningBraceOffset); // from before opening of method body
-// marker.end(methodOpeningBraceOffset + 1);
-
-// int methodRightBraceLine = document.getLineOfOffset(anonymousTypeOffset +
-// methodCloseBraceOffset);
-//
-// int anonymousTypeBraceLine = document.getLineOfOffset(anonymousTypeOffset +
-// anonymousTypeLength);
-
-				if (statementTerminator < 0) {
-					statementTerminator = methodCloseBraceOffset - 2;
-				}
-
-				marker.start(statementTerminator + 1); // hide lines from body end
-				// to anonymous class end (exclusive)
-				marker.end(methodCloseBraceOffset + 1);
-
-				eatUpExtraTabsOnEachLine(anomymousTypeSource, marker, scan, lastPreMethodOffset,
-				        methodCloseBraceOffset);
-
-				if (useClauseFolding)
-					try {
-
-// arrowRegion.offset++;
-// arrowRegion.length--;
-						// arrowRegion.reveal();// ?
-
-// if (editables != null)
-// editables.clearAll();
-
-// if (paramsCount == 0) {
-// parameterListOpenParen.reveal();// Show opening parameter paren
-// parameterListClosingParen.reveal();// Show closing parameter paren
-// }
-						// marker.printRegionHandles(document);
-
-						Region prefix = new Region(anonymousTypeOffset - 1, 1);
-						Region suffix = new Region(anonymousTypeOffset + anonymousTypeLength, 2);
-						return marker.toProcessedArray(prefix, suffix);
-
-					} catch (Exception e) {
-						e.printStackTrace();
-					}
+			IRegion[] resultingArray = null;
+			if (fAstRegions) {
+				LambdaShape shape = fLambdaTypes.getShape(anonymousTypeOffset, anonymousTypeLength,
+				        document);
+				if (shape != null)
+					resultingArray = fRegionComputer.compute(anomymousTypeSource, shape,
+					        anonymousTypeOffset, useClauseFolding, editables);
 			}
+			if (resultingArray == null)
+				resultingArray = fRegionComputer.compute(anomymousTypeSource,
+				        getTokenIndex(document, anonymousTypeLength), anonymousTypeOffset,
+				        useClauseFolding, editables);
 
-			// eat leading space before arror `=>` when no parameters
-// if (paramsCount == 0) {
-// preArrowRegion.length++;
-// arrowRegion.offset++;
-// arrowRegion.length--;
-// }
-//
-// arrowRegion.reveal();
-
-			IRegion[] resultingArray = marker.toProcessedArray();
-
-			// System.out.println("__ " + Arrays.toString(resultingArray));
-
-// Cache for later use
-// this.cachedStructure = resultingArray;
-// this.cachedSourceForCheck = anomymousTypeSource;
+			fRegionCache.put(document, anonymousTypeOffset, anonymousTypeLength, resultingArray);
 
 			return resultingArray;
 		}
 
-		private void eatUpExtraTabsOnEachLine(String anomymousTypeSource, RegionDemarkator marker,
-		        ScannerHelper scan, int startOffset, int endOffset) {
-			for (int index : scan.lineEnds()) {
-				if (index < startOffset || index > endOffset)
-					continue;
-				char startingNextLine = anomymousTypeSource.charAt(index + 1);
-				if (startingNextLine == '\t') {
-					marker.start(index + 1);
-					marker.end(index + 2);
-				} else {
-					boolean hasTabInFormOf4Spaces = true;
-					for (int i = index + 1; i < index + 5; i++) {
-						if (anomymousTypeSource.charAt(i) != ' ') {
-							hasTabInFormOf4Spaces = false;
-							break;
-						}
-					}
-					if (hasTabInFormOf4Spaces) {
-						marker.start(index + 1);
-						marker.end(index + 5);
-					}
-				}
-			}
-		}
-
 		/*
 		 * @see org.eclipse.jface.text.source.projection.IProjectionPosition#computeCaptionOffset(org.eclipse.jface.text.IDocument)
 		 */
@@ -1094,7 +1173,7 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 				IMethod foldedMethod = lambdaMethod;
 
 				if (foldedMethod != null && !foldedMethod.exists()) {
-					foldedMethod = findLambdaMethodIn(fMember);
+					foldedMethod = findLambdaMethod(fMember);
 					if (foldedMethod != null) {
 						lambdaMethod = foldedMethod;
 					}
@@ -1123,11 +1202,41 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 
 	}
 
-	private static boolean wheretherAnonymousTypeIsSingleParameterToHigherOrderMethod(
-	        IDocument document, int declarationOffset, int declarationLength)
-	        throws BadLocationException {
-		return document.get(declarationOffset - 1, 4).equals("(new") &&
-		        document.get(declarationOffset + declarationLength - 1, 3).equals("});");
+	/**
+	 * Read-only view of a document as a character sequence, so that the rules of
+	 * {@link LambdaRegionComputer} apply to the document without copying its content.
+	 */
+	private static final class DocumentCharSequence implements CharSequence {
+		private final IDocument fDocument;
+
+		DocumentCharSequence(IDocument document) {
+			fDocument = document;
+		}
+
+		public int length() {
+			return fDocument.getLength();
+		}
+
+		public char charAt(int index) {
+			try {
+				return fDocument.getChar(index);
+			} catch (BadLocationException e) {
+				throw new IndexOutOfBoundsException(String.valueOf(index));
+			}
+		}
+
+		public CharSequence subSequence(int start, int end) {
+			try {
+				return fDocument.get(start, end - start);
+			} catch (BadLocationException e) {
+				throw new IndexOutOfBoundsException(start + ", " + end);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return fDocument.get();
+		}
 	}
 
 	/**
@@ -1137,13 +1246,15 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 		private ProjectionViewer fViewer;
 
 		/**
-		 * Registers the listener with the viewer.
+		 * Registers the listener with the viewer and lets the viewer fold the viewport first when
+		 * a file with many collapsed regions is opened.
 		 * @param viewer the viewer to register a listener with
 		 */
 		public ProjectionListener(ProjectionViewer viewer) {
 			Assert.isLegal(viewer != null);
 			fViewer = viewer;
 			fViewer.addProjectionListener(this);
+			fViewer.setLazyProjectionInitialization(true);
 		}
 
 		/**
@@ -1151,6 +1262,7 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 		 */
 		public void dispose() {
 			if (fViewer != null) {
+				fViewer.setLazyProjectionInitialization(false);
 				fViewer.removeProjectionListener(this);
 				fViewer = null;
 			}
@@ -1174,6 +1286,8 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 	/* context and listeners */
 	private JavaEditor fEditor;
 	private ProjectionListener fProjectionListener;
+	/** Verification of the snapshot applied on opening the input, <code>null</code> if there is none */
+	private SnapshotVerificationJob fSnapshotVerification;
 	private IJavaElement fInput;
 	private IElementChangedListener fElementListener;
 
@@ -1183,6 +1297,8 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 	private boolean fCollapseInnerTypes = true;
 	private boolean fCollapseMembers = false;
 	private boolean fCollapseHeaderComments = true;
+	/** Whether lambda regions are computed from the reconciled AST rather than by scanning */
+	private boolean fAstRegions = false;
 
 	/* filters */
 	/** Member filter, matches nested members (but not top-level types). */
@@ -1198,6 +1314,56 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 
 	private volatile int fUpdatingCount = 0;
 	private ProjectionViewer viewer;
+	private volatile FoldingUpdateJob fUpdateJob;
+	private final EditZone fEditZone = new EditZone();
+	private final LineGeometry fLineGeometry = new LineGeometry();
+
+	/**
+	 * Lambda projection regions of the current document, shared by all element positions.
+	 */
+	private final ProjectionRegionCache fRegionCache = new ProjectionRegionCache(512);
+
+	/**
+	 * Classification of the anonymous types of the input, taken from the reconciled AST.
+	 */
+	private final LambdaTypeClassifier fLambdaTypes = new LambdaTypeClassifier();
+
+	/**
+	 * Reusable computer of lambda projection regions, only used on the display thread.
+	 */
+	private final LambdaRegionComputer fRegionComputer = new LambdaRegionComputer();
+
+	/**
+	 * Minimal source length for which the initial folding structure is computed in parallel.
+	 */
+	private static final int PARALLEL_THRESHOLD = 64 * 1024;
+
+	private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Time in milliseconds the display thread waits for the chunks of a parallel computation before
+	 * it computes the remaining chunks itself.
+	 */
+	private static final long PARALLEL_TIMEOUT = 500;
+
+	/**
+	 * Executor computing initial folding structures in parallel, shared by all providers.
+	 */
+	private static ExecutorService sharedExecutor;
+
+	/**
+	 * Scanners of the threads of the shared executor.
+	 */
+	private static final ThreadLocal<IScanner> SCANNERS = new ThreadLocal<IScanner>() {
+		protected IScanner initialValue() {
+			return ToolFactory.createScanner(true, false, false, false);
+		}
+	};
+
+	/* token index of the current document, see getTokenIndex(IDocument, int) */
+	private TokenIndex fTokenIndex;
+	private long fTokenIndexStamp = IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+	private long fTokenIndexScanned;
 
 	/**
 	 * Creates a new folding provider. It must be {@link #install(ITextEditor, ProjectionViewer)
@@ -1279,6 +1445,10 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 
 		if (isInstalled()) {
 			initialize();
+			IDocument document = getDocument();
+			if (document != null)
+				fEditZone.connect(document);
+			fUpdateJob = new FoldingUpdateJob();
 			fElementListener = new ElementChangedListener();
 			JavaCore.addElementChangedListener(fElementListener);
 		}
@@ -1295,32 +1465,67 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 	 * </p>
 	 */
 	protected void handleProjectionDisabled() {
+		saveSnapshot();
+		fRegionCache.clear();
+		fLambdaTypes.clear();
+		synchronized (this) {
+			fTokenIndex = null;
+			fTokenIndexStamp = IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+		}
 		if (fElementListener != null) {
 			JavaCore.removeElementChangedListener(fElementListener);
 			fElementListener = null;
 		}
+		if (fUpdateJob != null) {
+			fUpdateJob.cancel();
+			fUpdateJob = null;
+		}
+		if (fSnapshotVerification != null) {
+			fSnapshotVerification.cancel();
+			fSnapshotVerification = null;
+		}
+		fEditZone.disconnect();
 	}
 
 	/*
 	 * @see org.eclipse.jdt.ui.text.folding.IJavaFoldingStructureProvider#initialize()
 	 */
 	public final void initialize() {
+		initialize(true);
+	}
+
+	/**
+	 * Initializes the folding structure.
+	 * @param useSnapshot <code>false</code> to ignore the snapshot of the input
+	 */
+	private void initialize(boolean useSnapshot) {
 		fUpdatingCount++;
 		try {
-			update(createInitialContext());
+			update(createInitialContext(useSnapshot));
 		} finally {
 			fUpdatingCount--;
 		}
 	}
 
-	private FoldingStructureComputationContext createInitialContext() {
+	private FoldingStructureComputationContext createInitialContext(boolean useSnapshot) {
 		initializePreferences();
 		fInput = getInputElement();
 		if (fInput == null)
 			return null;
 
+		if (fInput instanceof ITypeRoot) {
+			CompilationUnit ast = SharedASTProvider.getAST((ITypeRoot) fInput,
+			        SharedASTProvider.WAIT_NO, null);
+			if (ast != null)
+				fLambdaTypes.update(ast, getDocument(), fAstRegions);
+		}
+
 		FoldingStructureComputationContext context = createContext(true);
-		context.initial = true;
+		if (context != null) {
+			context.initial = true;
+			if (useSnapshot)
+				context.fSnapshot = loadSnapshot(context.getDocument());
+		}
 		return context;
 	}
 
@@ -1341,6 +1546,104 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 		return new FoldingStructureComputationContext(doc, model, allowCollapse, scanner);
 	}
 
+	private FoldingStructureComputationContext createContext(boolean allowCollapse,
+	        IScanner scanner) {
+		if (!isInstalled())
+			return null;
+		ProjectionAnnotationModel model = getModel();
+		if (model == null)
+			return null;
+		IDocument doc = getDocument();
+		if (doc == null)
+			return null;
+
+		return new FoldingStructureComputationContext(doc, model, allowCollapse, scanner);
+	}
+
+	/**
+	 * Collects the members affected by a delta of the input element.
+	 * @param delta the delta of the input element
+	 * @param scope receives the members to recompute
+	 * @param removed receives the removed elements
+	 * @return <code>false</code> if the delta is not fine grained and the whole input has to be
+	 *         recomputed
+	 */
+	private boolean collectScope(IJavaElementDelta delta, Set<IJavaElement> scope,
+	        Set<IJavaElement> removed) {
+		if ((delta.getFlags() & IJavaElementDelta.F_FINE_GRAINED) == 0)
+			return false;
+
+		IJavaElementDelta[] children = delta.getAffectedChildren();
+		if (children.length == 0)
+			return false;
+
+		for (int i = 0; i < children.length; i++)
+			collectAffectedMembers(children[i], scope, removed);
+		return true;
+	}
+
+	/**
+	 * Restricts the context to the given members. The context is left computing the whole input if
+	 * the first type of the input is affected, as the header comment depends on it.
+	 * @param ctx the context to restrict
+	 * @param scope the members to recompute
+	 * @param removed the removed elements
+	 */
+	private void restrictToScope(FoldingStructureComputationContext ctx, Set<IJavaElement> scope,
+	        Set<IJavaElement> removed) {
+		try {
+			IType firstType = findFirstType();
+			if (firstType == null || scope.contains(firstType) || removed.contains(firstType))
+				return;
+			ctx.setFirstType(firstType);
+		} catch (JavaModelException e) {
+			return;
+		}
+
+		ctx.setScope(scope, removed);
+	}
+
+	/**
+	 * Collects the outermost members whose folding structure is affected by <code>delta</code>.
+	 * A member with changed content is recomputed as a whole, together with its children; a
+	 * member that only has changed children is descended into.
+	 * @param delta the delta to inspect
+	 * @param scope receives the members to recompute
+	 * @param removed receives the removed elements
+	 */
+	private void collectAffectedMembers(IJavaElementDelta delta, Set<IJavaElement> scope,
+	        Set<IJavaElement> removed) {
+		IJavaElement element = delta.getElement();
+		switch (delta.getKind()) {
+		case IJavaElementDelta.ADDED:
+			scope.add(element);
+			return;
+		case IJavaElementDelta.REMOVED:
+			removed.add(element);
+			return;
+		}
+
+		IJavaElementDelta[] children = delta.getAffectedChildren();
+		if (children.length == 0 || (delta.getFlags() & IJavaElementDelta.F_CONTENT) != 0) {
+			scope.add(element);
+			return;
+		}
+
+		for (int i = 0; i < children.length; i++)
+			collectAffectedMembers(children[i], scope, removed);
+	}
+
+	private IType findFirstType() throws JavaModelException {
+		if (!(fInput instanceof IParent))
+			return null;
+		IJavaElement[] children = ((IParent) fInput).getChildren();
+		for (int i = 0; i < children.length; i++) {
+			if (children[i].getElementType() == IJavaElement.TYPE)
+				return (IType) children[i];
+		}
+		return null;
+	}
+
 	private IJavaElement getInputElement() {
 		if (fEditor == null)
 			return null;
@@ -1354,17 +1657,128 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 		fCollapseJavadoc = store.getBoolean(PreferenceConstants.EDITOR_FOLDING_JAVADOC);
 		fCollapseMembers = store.getBoolean(PreferenceConstants.EDITOR_FOLDING_METHODS);
 		fCollapseHeaderComments = store.getBoolean(PreferenceConstants.EDITOR_FOLDING_HEADERS);
+		fAstRegions = EditorsUI.getPreferenceStore().getBoolean(AST_REGIONS);
 	}
 
 	private void update(FoldingStructureComputationContext ctx) {
 		if (ctx == null)
 			return;
 
+		computeFoldingStructure(ctx);
+		if (ctx.fScanner != null)
+			ctx.fScanner.setSource(null);
+
+		if (ctx.fSnapshot != null)
+			restoreCollapsedState(ctx);
+
+		applyFoldingStructure(ctx);
+	}
+
+	/**
+	 * Loads the folding snapshot of the input, provided it was taken of content of the current
+	 * length. The saved lambda regions are put into the region cache, so that the initial
+	 * projection does not scan the closures again. Whether the snapshot was taken of the current
+	 * content is verified later on by a {@link SnapshotVerificationJob}.
+	 * @param document the document of the input
+	 * @return the snapshot, or <code>null</code> if there is none for the current content
+	 */
+	private FoldingSnapshot loadSnapshot(IDocument document) {
+		if (fSnapshotVerification != null) {
+			fSnapshotVerification.cancel();
+			fSnapshotVerification = null;
+		}
+
+		File file = FoldingSnapshot.fileFor(fInput.getHandleIdentifier());
+		FoldingSnapshot snapshot = FoldingSnapshot.read(file);
+		if (snapshot == null || snapshot.getContentLength() != document.getLength())
+			return null;
+
+		for (Map.Entry<Long, IRegion[]> entry : snapshot.getRegions().entrySet()) {
+			long key = entry.getKey().longValue();
+			fRegionCache.put(document, FoldingSnapshot.keyOffset(key), FoldingSnapshot
+			        .keyLength(key), entry.getValue());
+		}
+
+		fSnapshotVerification = new SnapshotVerificationJob(file, snapshot, document);
+		fSnapshotVerification.schedule();
+		return snapshot;
+	}
+
+	/**
+	 * Restores the collapsed state the user left the folds of the unchanged input with.
+	 * @param ctx the initial context holding the computed structure and the snapshot
+	 */
+	private void restoreCollapsedState(FoldingStructureComputationContext ctx) {
+		for (Map.Entry<JavaProjectionAnnotation, Position> entry : ctx.fMap.entrySet()) {
+			JavaProjectionAnnotation annotation = entry.getKey();
+			Position position = entry.getValue();
+			int flags = ctx.fSnapshot.getFlags(position.getOffset(), position.getLength());
+			if (flags == -1 || annotation.isComment() != ((flags & FoldingSnapshot.COMMENT) != 0))
+				continue;
+
+			if ((flags & FoldingSnapshot.COLLAPSED) != 0)
+				annotation.markCollapsed();
+			else
+				annotation.markExpanded();
+		}
+	}
+
+	/**
+	 * Saves the folding structure of the input, so that it can be restored when the unchanged
+	 * input is opened again.
+	 */
+	private void saveSnapshot() {
+		IJavaElement input = fInput;
+		if (input == null || !isInstalled())
+			return;
+		ProjectionAnnotationModel model = getModel();
+		IDocument document = getDocument();
+		if (model == null || document == null)
+			return;
+		File file = FoldingSnapshot.fileFor(input.getHandleIdentifier());
+		if (file == null)
+			return;
+
+		String content = document.get();
+		FoldingSnapshot snapshot = new FoldingSnapshot(FoldingSnapshot.hash(content), content
+		        .length());
+		boolean empty = true;
+		Iterator e = model.getAnnotationIterator();
+		while (e.hasNext()) {
+			Object annotation = e.next();
+			if (annotation instanceof JavaProjectionAnnotation) {
+				JavaProjectionAnnotation java = (JavaProjectionAnnotation) annotation;
+				Position position = model.getPosition(java);
+				if (position != null && !position.isDeleted()) {
+					snapshot.addFold(position.getOffset(), position.getLength(), java.isCollapsed(),
+					        java.isComment());
+					empty = false;
+				}
+			}
+		}
+		if (empty)
+			return;
+
+		for (Map.Entry<Long, IRegion[]> entry : fRegionCache.getEntries(document).entrySet())
+			snapshot.addRegions(entry.getKey().longValue(), entry.getValue());
+
+		try {
+			snapshot.write(file);
+		} catch (IOException x) {
+			JavaPlugin.log(x);
+		}
+	}
+
+	/**
+	 * Reconciles the computed structure of the context with the annotation model. Must be called
+	 * in the thread owning the annotation model, usually the display thread.
+	 * @param ctx the context holding the computed structure
+	 */
+	private void applyFoldingStructure(FoldingStructureComputationContext ctx) {
 		Map<Annotation, Position> additions = new HashMap<Annotation, Position>();
 		List<Annotation> deletions = new ArrayList<Annotation>();
 		List<Annotation> updates = new ArrayList<Annotation>();
 
-		computeFoldingStructure(ctx);
 		Map newStructure = ctx.fMap;
 		Map oldStructure = computeCurrentStructure(ctx);
 
@@ -1431,13 +1845,56 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 				deletions.add(((Tuple) list.get(i)).annotation);
 		}
 
-		match(deletions, additions, updates, ctx);
+		match(deletions, additions, updates, ctx.getModel());
 
 		Annotation[] deletedArray = deletions.toArray(new Annotation[deletions.size()]);
 		Annotation[] changedArray = updates.toArray(new Annotation[updates.size()]);
 		ctx.getModel().modifyAnnotations(deletedArray, additions, changedArray);
+	}
 
-		ctx.fScanner.setSource(null);
+	private static long getModificationStamp(IDocument document) {
+		if (document instanceof IDocumentExtension4)
+			return ((IDocumentExtension4) document).getModificationStamp();
+		return IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+	}
+
+	/**
+	 * Returns the token index of the whole document, shared by all lambda region computations for
+	 * the same document modification stamp. The index is only built once the closures scanned for
+	 * a stamp add up to half of the document: the few closures updated after a keystroke are
+	 * cheaper to scan on their own, while a burst of computations (initial folding,
+	 * reinitialization, expand all) scans the document once instead of closure by closure.
+	 * @param document the document
+	 * @param length the length of the range about to be scanned
+	 * @return the token index, or <code>null</code> if the range should be scanned on its own
+	 */
+	private synchronized TokenIndex getTokenIndex(IDocument document, int length) {
+		long stamp = getModificationStamp(document);
+		if (stamp == IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP)
+			return null;
+
+		if (stamp != fTokenIndexStamp) {
+			fTokenIndex = null;
+			fTokenIndexStamp = stamp;
+			fTokenIndexScanned = 0;
+		}
+		if (fTokenIndex == null) {
+			fTokenIndexScanned += length;
+			if (fTokenIndexScanned > document.getLength() / 2)
+				fTokenIndex = new TokenIndex(document.get().toCharArray());
+		}
+
+		return fTokenIndex;
+	}
+
+	private Display getDisplay() {
+		ProjectionViewer projectionViewer = viewer;
+		if (projectionViewer == null)
+			return null;
+		StyledText textWidget = projectionViewer.getTextWidget();
+		if (textWidget == null || textWidget.isDisposed())
+			return null;
+		return textWidget.getDisplay();
 	}
 
 	private void computeFoldingStructure(FoldingStructureComputationContext ctx) {
@@ -1449,11 +1906,149 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 			if (source == null)
 				return;
 
-			ctx.getScanner().setSource(source.toCharArray());
-			computeFoldingStructure(parent.getChildren(), ctx);
+			char[] contents = source.toCharArray();
+			ctx.getScanner().setSource(contents);
+			if (ctx.isIncremental())
+				computeScopedFoldingStructure(ctx);
+			else if (ctx.initial && contents.length >= PARALLEL_THRESHOLD && PARALLELISM > 1)
+				computeFoldingStructureInParallel(parent.getChildren(), contents, ctx);
+			else
+				computeFoldingStructure(parent.getChildren(), ctx);
 		} catch (JavaModelException x) {}
 	}
 
+	/**
+	 * Computes the initial folding structure of a large input on the shared executor. The top-level
+	 * elements themselves are computed on the calling thread, as the first type determines the
+	 * header comment. Their members are split into contiguous chunks, each computed with a scanner
+	 * of its own into a forked context. The joined result is ordered by offset, so it does not
+	 * depend on the scheduling.
+	 * <p>
+	 * The calling thread waits for the chunks, so the document and the Java model are not modified
+	 * meanwhile when called on the display thread. It waits for {@link #PARALLEL_TIMEOUT} at most
+	 * though, as the executor is shared and a chunk may wait for a lock the calling thread holds.
+	 * Chunks not done by then are canceled and computed on the calling thread.
+	 * </p>
+	 * @param elements the top-level elements of the input
+	 * @param contents the contents of the input
+	 * @param ctx the initial context
+	 * @throws JavaModelException if an element cannot be accessed
+	 */
+	private void computeFoldingStructureInParallel(IJavaElement[] elements, final char[] contents,
+	        final FoldingStructureComputationContext ctx) throws JavaModelException {
+		List<IJavaElement> members = new ArrayList<IJavaElement>();
+		for (int i = 0; i < elements.length; i++) {
+			ctx.checkCanceled();
+			computeFoldingStructure(elements[i], ctx);
+			if (elements[i] instanceof IParent)
+				members.addAll(Arrays.asList(((IParent) elements[i]).getChildren()));
+		}
+
+		int chunks = Math.min(members.size(), PARALLELISM * 4);
+		if (chunks < 2) {
+			computeFoldingStructure(members.toArray(new IJavaElement[members.size()]), ctx);
+			return;
+		}
+
+		ExecutorService executor = getSharedExecutor();
+		List<Future<FoldingStructureComputationContext>> futures = new ArrayList<Future<FoldingStructureComputationContext>>(
+		        chunks);
+		IJavaElement[][] chunkMembers = new IJavaElement[chunks][];
+		try {
+			for (int i = 0; i < chunks; i++) {
+				List<IJavaElement> chunk = members.subList(i * members.size() / chunks, (i + 1) *
+				        members.size() / chunks);
+				final IJavaElement[] chunkElements = chunk.toArray(new IJavaElement[chunk.size()]);
+				chunkMembers[i] = chunkElements;
+				futures.add(executor.submit(new Callable<FoldingStructureComputationContext>() {
+					public FoldingStructureComputationContext call() throws JavaModelException {
+						IScanner scanner = SCANNERS.get();
+						scanner.setSource(contents);
+						try {
+							FoldingStructureComputationContext fork = ctx.fork(scanner);
+							computeFoldingStructure(chunkElements, fork);
+							return fork;
+						} finally {
+							scanner.setSource(null);
+						}
+					}
+				}));
+			}
+
+			long deadline = System.currentTimeMillis() + PARALLEL_TIMEOUT;
+			for (int i = 0; i < chunks; i++) {
+				Future<FoldingStructureComputationContext> future = futures.get(i);
+				long remaining = deadline - System.currentTimeMillis();
+				try {
+					ctx.join(future.get(Math.max(0, remaining), TimeUnit.MILLISECONDS));
+				} catch (TimeoutException e) {
+					// the ranges are sorted below, so the chunk may be computed in any order
+					future.cancel(true);
+					ctx.checkCanceled();
+					computeFoldingStructure(chunkMembers[i], ctx);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new OperationCanceledException();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof JavaModelException)
+				throw (JavaModelException) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IllegalStateException(cause);
+		} finally {
+			for (Future<FoldingStructureComputationContext> future : futures)
+				future.cancel(true);
+		}
+
+		ctx.sortByOffset();
+	}
+
+	private static synchronized ExecutorService getSharedExecutor() {
+		if (sharedExecutor == null) {
+			sharedExecutor = Executors.newFixedThreadPool(PARALLELISM, new ThreadFactory() {
+				private int count;
+
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "Lambda4jdt folding " + ++count); //$NON-NLS-1$
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return sharedExecutor;
+	}
+
+	/**
+	 * Computes the folding structure of the members an incremental context is restricted to. Members
+	 * nested in another member of the scope are skipped, as they are covered by their ancestor.
+	 * @param ctx the incremental context
+	 * @throws JavaModelException if a member cannot be accessed
+	 */
+	private void computeScopedFoldingStructure(FoldingStructureComputationContext ctx)
+	        throws JavaModelException {
+		Set<IJavaElement> scope = ctx.getScope();
+		for (IJavaElement member : scope) {
+			if (!member.exists() || hasAncestorIn(member, scope))
+				continue;
+
+			computeFoldingStructure(new IJavaElement[] { member }, ctx,
+			        isAnomymousType(member.getParent()));
+		}
+	}
+
+	private static boolean hasAncestorIn(IJavaElement element, Set<IJavaElement> elements) {
+		for (IJavaElement e = element.getParent(); e != null; e = e.getParent()) {
+			if (elements.contains(e))
+				return true;
+		}
+		return false;
+	}
+
 	private void computeFoldingStructure(IJavaElement[] elements,
 	        FoldingStructureComputationContext ctx) throws JavaModelException {
 		computeFoldingStructure(elements, ctx, false);
@@ -1463,6 +2058,7 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 	        FoldingStructureComputationContext ctx, boolean isInAnonymousType)
 	        throws JavaModelException {
 		for (int i = 0; i < elements.length; i++) {
+			ctx.checkCanceled();
 			IJavaElement element = elements[i];
 
 			if (isInAnonymousType) {
@@ -1556,7 +2152,7 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 			collapseCode = isInnerType((IType) element) && !isAnonymousEnum((IType) element);
 			collapse = ctx.collapseInnerTypes() && collapseCode;
 
-			lambdaMethod = findLambdaMethodIn(element);
+			lambdaMethod = findLambdaMethod(element);
 
 			if (lambdaMethod != null) {
 				// Let collapse initially by default
@@ -1867,29 +2463,40 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 	 * @param deletions list with deleted annotations
 	 * @param additions map with position to annotation mappings
 	 * @param changes list with changed annotations
-	 * @param ctx the context
+	 * @param model the projection annotation model holding the deleted and changed annotations
 	 */
-	private void match(List<Annotation> deletions, Map<Annotation, Position> additions,
-	        List<Annotation> changes, FoldingStructureComputationContext ctx) {
+	static void match(List<Annotation> deletions, Map<Annotation, Position> additions,
+	        List<Annotation> changes, ProjectionAnnotationModel model) {
 		if (deletions.isEmpty() || (additions.isEmpty() && changes.isEmpty()))
 			return;
 
+		TupleIndex changeIndex = new TupleIndex();
+		for (Annotation annotation : changes) {
+			Position position = model.getPosition(annotation);
+			if (position != null)
+				changeIndex.add((JavaProjectionAnnotation) annotation, position);
+		}
+
+		TupleIndex additionIndex = new TupleIndex();
+		for (Map.Entry<Annotation, Position> entry : additions.entrySet())
+			additionIndex.add((JavaProjectionAnnotation) entry.getKey(), entry.getValue());
+
+		List<Annotation> remainingDeletions = new ArrayList<Annotation>(deletions.size());
 		List<Annotation> newDeletions = new ArrayList<Annotation>();
 		List<Annotation> newChanges = new ArrayList<Annotation>();
 
-		Iterator deletionIterator = deletions.iterator();
-		while (deletionIterator.hasNext()) {
-			JavaProjectionAnnotation deleted = (JavaProjectionAnnotation) deletionIterator.next();
-			Position deletedPosition = ctx.getModel().getPosition(deleted);
-			if (deletedPosition == null)
+		for (Annotation annotation : deletions) {
+			JavaProjectionAnnotation deleted = (JavaProjectionAnnotation) annotation;
+			Position deletedPosition = model.getPosition(deleted);
+			if (deletedPosition == null) {
+				remainingDeletions.add(deleted);
 				continue;
+			}
 
-			Tuple deletedTuple = new Tuple(deleted, deletedPosition);
-
-			Tuple match = findMatch(deletedTuple, changes, null, ctx);
+			Tuple match = changeIndex.remove(deleted.isComment(), deletedPosition.getOffset());
 			boolean addToDeletions = true;
 			if (match == null) {
-				match = findMatch(deletedTuple, additions.keySet(), additions, ctx);
+				match = additionIndex.remove(deleted.isComment(), deletedPosition.getOffset());
 				addToDeletions = false;
 			}
 
@@ -1902,56 +2509,77 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 					jep.setMember((IMember) element);
 				}
 
-				deletionIterator.remove();
 				newChanges.add(deleted);
 
 				if (addToDeletions)
 					newDeletions.add(match.annotation);
+				else
+					additions.remove(match.annotation);
+			} else {
+				remainingDeletions.add(deleted);
+			}
+		}
+
+		if (!newDeletions.isEmpty()) {
+			Set<Annotation> superseded = new HashSet<Annotation>(newDeletions);
+			Iterator<Annotation> it = changes.iterator();
+			List<Annotation> remainingChanges = new ArrayList<Annotation>(changes.size());
+			while (it.hasNext()) {
+				Annotation change = it.next();
+				if (!superseded.contains(change))
+					remainingChanges.add(change);
 			}
+			changes.clear();
+			changes.addAll(remainingChanges);
 		}
 
+		deletions.clear();
+		deletions.addAll(remainingDeletions);
 		deletions.addAll(newDeletions);
 		changes.addAll(newChanges);
 	}
 
 	/**
-	 * Finds a match for <code>tuple</code> in a collection of annotations. The positions for the
-	 * <code>JavaProjectionAnnotation</code> instances in <code>annotations</code> can be found in
-	 * the passed <code>positionMap</code> or <code>fCachedModel</code> if <code>positionMap</code>
-	 * is <code>null</code>.
+	 * Index of annotation/position tuples by comment flag and position offset, used to match
+	 * deleted annotations to changed or added ones in constant time.
 	 * <p>
 	 * A tuple is said to match another if their annotations have the same comment flag and their
-	 * position offsets are equal.
+	 * position offsets are equal. Tuples sharing a key are matched in the order they were added.
 	 * </p>
-	 * <p>
-	 * If a match is found, the annotation gets removed from <code>annotations</code>.
-	 * </p>
-	 * @param tuple the tuple for which we want to find a match
-	 * @param annotations collection of <code>JavaProjectionAnnotation</code>
-	 * @param positionMap a <code>Map&lt;Annotation, Position&gt;</code> or <code>null</code>
-	 * @param ctx the context
-	 * @return a matching tuple or <code>null</code> for no match
 	 */
-	private Tuple findMatch(Tuple tuple, Collection annotations, Map positionMap,
-	        FoldingStructureComputationContext ctx) {
-		Iterator it = annotations.iterator();
-		while (it.hasNext()) {
-			JavaProjectionAnnotation annotation = (JavaProjectionAnnotation) it.next();
-			if (tuple.annotation.isComment() == annotation.isComment()) {
-
-				Position position = positionMap == null ? ctx.getModel().getPosition(annotation)
-				        : (Position) positionMap.get(annotation);
-				if (position == null)
-					continue;
-
-				if (tuple.position.getOffset() == position.getOffset()) {
-					it.remove();
-					return new Tuple(annotation, position);
-				}
+	private static final class TupleIndex {
+		private final Map<Long, LinkedList<Tuple>> fTuples = new HashMap<Long, LinkedList<Tuple>>();
+
+		void add(JavaProjectionAnnotation annotation, Position position) {
+			Long key = key(annotation.isComment(), position.getOffset());
+			LinkedList<Tuple> tuples = fTuples.get(key);
+			if (tuples == null) {
+				tuples = new LinkedList<Tuple>();
+				fTuples.put(key, tuples);
 			}
+			tuples.add(new Tuple(annotation, position));
 		}
 
-		return null;
+		/**
+		 * Removes and returns the first tuple matching the given key.
+		 * @param isComment the comment flag
+		 * @param offset the position offset
+		 * @return a matching tuple or <code>null</code> for no match
+		 */
+		Tuple remove(boolean isComment, int offset) {
+			Long key = key(isComment, offset);
+			LinkedList<Tuple> tuples = fTuples.get(key);
+			if (tuples == null)
+				return null;
+			Tuple tuple = tuples.removeFirst();
+			if (tuples.isEmpty())
+				fTuples.remove(key);
+			return tuple;
+		}
+
+		private static Long key(boolean isComment, int offset) {
+			return Long.valueOf(((long) offset << 1) | (isComment ? 1 : 0));
+		}
 	}
 
 	private Map computeCurrentStructure(FoldingStructureComputationContext ctx) {
@@ -1962,6 +2590,9 @@ public class JavaStyleClosuresFoldingProvider implements IJavaFoldingStructurePr
 			Object annotation = e.next();
 			if (annotation instanceof JavaProjectionAnnotation) {
 				JavaProjectionAnnotation java = (JavaProjectionAnnotation) annotation;
+				// folds outside of an incremental scope keep their positions and state
+				if (!ctx.isInScope(java.getElement()))
+					continue;
 				Position position = model.getPosition(java);
 				Assert.isNotNull(position);
 				List<Tuple> list = map.get(java.getElement());
@@ -0,0 +1,190 @@
+package com.github.elucash.lambda4jdt;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.AnonymousClassDeclaration;
+import org.eclipse.jdt.core.dom.ClassInstanceCreation;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jface.text.IRegion;
+
+/**
+ * Computes lambda folds of Java sources without an editor, a viewer or the Java model. The
+ * closures of a source are found by a JDT DOM parse of the plain <code>char[]</code>; only the
+ * JDT core and JFace text libraries are needed, so the engine also runs outside of the
+ * workbench, for instance to precompute fold layouts of whole source trees.
+ * <p>
+ * Sources are independent of each other and may be computed in parallel on an
+ * {@link ExecutorService}. The engine keeps no per source state and is thread safe.
+ * </p>
+ */
+public class LambdaFoldingEngine {
+
+	/**
+	 * The lambda fold of one anonymous type.
+	 */
+	public static final class Fold {
+		private final int offset;
+		private final int length;
+		private final IRegion[] regions;
+
+		Fold(int offset, int length, IRegion[] regions) {
+			this.offset = offset;
+			this.length = length;
+			this.regions = regions;
+		}
+
+		/**
+		 * @return the offset of the anonymous type declaration, at its <code>new</code> keyword
+		 */
+		public int getOffset() {
+			return offset;
+		}
+
+		/**
+		 * @return the length of the anonymous type declaration
+		 */
+		public int getLength() {
+			return length;
+		}
+
+		/**
+		 * @return the regions hidden when the anonymous type is folded, sorted by offset
+		 */
+		public IRegion[] getRegions() {
+			return regions.clone();
+		}
+	}
+
+	private static final Fold[] NO_FOLDS = new Fold[0];
+
+	/** Region computers are reused across the sources computed by the same thread */
+	private final ThreadLocal<LambdaRegionComputer> computers =
+	        new ThreadLocal<LambdaRegionComputer>() {
+		protected LambdaRegionComputer initialValue() {
+			return new LambdaRegionComputer();
+		}
+	};
+
+	private final Map<?, ?> compilerOptions;
+
+	/**
+	 * Creates an engine parsing sources at the given compliance level.
+	 * @param compliance the source compliance, one of the <code>JavaCore.VERSION_*</code> constants
+	 */
+	public LambdaFoldingEngine(String compliance) {
+		Map options = JavaCore.getOptions();
+		JavaCore.setComplianceOptions(compliance, options);
+		compilerOptions = options;
+	}
+
+	/**
+	 * Creates an engine parsing sources at the Java 5 compliance level.
+	 */
+	public LambdaFoldingEngine() {
+		this(JavaCore.VERSION_1_5);
+	}
+
+	/**
+	 * Computes the lambda folds of a compilation unit source in the calling thread. Closures whose
+	 * regions cannot be computed, typically because of syntax errors, are left out.
+	 * @param source the compilation unit source
+	 * @return the folds sorted by offset, never <code>null</code>
+	 */
+	public Fold[] computeFolds(char[] source) {
+		final List<AnonymousClassDeclaration> closures = new ArrayList<AnonymousClassDeclaration>();
+		parse(source).accept(new ASTVisitor() {
+			public boolean visit(AnonymousClassDeclaration node) {
+				if (isClosure(node))
+					closures.add(node);
+				return true;
+			}
+		});
+		if (closures.isEmpty())
+			return NO_FOLDS;
+
+		// a single closure is cheaper to scan on its own
+		TokenIndex tokens = closures.size() > 1 ? new TokenIndex(source) : null;
+		CharSequence text = CharBuffer.wrap(source);
+		LambdaRegionComputer computer = computers.get();
+
+		List<Fold> folds = new ArrayList<Fold>(closures.size());
+		for (AnonymousClassDeclaration closure : closures) {
+			ASTNode creation = closure.getParent();
+			int offset = creation.getStartPosition();
+			int length = closure.getStartPosition() + closure.getLength() - offset;
+			try {
+				boolean clause = LambdaRegionComputer.isSingleParameterToHigherOrderMethod(text,
+				        offset, length);
+				IRegion[] regions = computer.compute(new String(source, offset, length), tokens,
+				        offset, clause, null);
+				folds.add(new Fold(offset, length, regions));
+			} catch (RuntimeException e) {
+				// malformed closure, not folded as a lambda
+			}
+		}
+		// visited in preorder, so nested closures already follow their enclosing ones
+		return folds.toArray(new Fold[folds.size()]);
+	}
+
+	/**
+	 * Computes the lambda folds of many compilation unit sources on the given executor. Waits for
+	 * all sources to be computed.
+	 * @param sources the compilation unit sources
+	 * @param executor the executor to run the computations on
+	 * @return the folds of each source, in the order of <code>sources</code>
+	 * @throws InterruptedException if interrupted while waiting
+	 * @throws ExecutionException if the computation of a source failed
+	 */
+	public Fold[][] computeFolds(char[][] sources, ExecutorService executor)
+	        throws InterruptedException, ExecutionException {
+		List<Future<Fold[]>> futures = new ArrayList<Future<Fold[]>>(sources.length);
+		try {
+			for (final char[] source : sources) {
+				futures.add(executor.submit(new Callable<Fold[]>() {
+					public Fold[] call() {
+						return computeFolds(source);
+					}
+				}));
+			}
+
+			Fold[][] result = new Fold[sources.length][];
+			for (int i = 0; i < result.length; i++)
+				result[i] = futures.get(i).get();
+			return result;
+		} finally {
+			for (Future<Fold[]> future : futures)
+				future.cancel(true);
+		}
+	}
+
+	private CompilationUnit parse(char[] source) {
+		ASTParser parser = ASTParser.newParser(AST.JLS3);
+		parser.setKind(ASTParser.K_COMPILATION_UNIT);
+		parser.setCompilerOptions(compilerOptions);
+		parser.setSource(source);
+		return (CompilationUnit) parser.createAST(null);
+	}
+
+	/*
+	 * Same criterion as findLambdaMethodIn: an anonymous type declaring a single method only.
+	 * Enum constant bodies are not closures.
+	 */
+	private static boolean isClosure(AnonymousClassDeclaration node) {
+		if (!(node.getParent() instanceof ClassInstanceCreation))
+			return false;
+		List<?> declarations = node.bodyDeclarations();
+		return declarations.size() == 1 && declarations.get(0) instanceof MethodDeclaration;
+	}
+}
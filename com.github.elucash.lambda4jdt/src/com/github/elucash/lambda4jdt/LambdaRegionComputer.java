@@ -0,0 +1,527 @@
+package com.github.elucash.lambda4jdt;
+
+import static org.eclipse.jdt.core.compiler.ITerminalSymbols.*;
+import org.eclipse.jface.text.IRegion;
+import org.eclipse.jface.text.Region;
+
+/**
+ * Computes the regions to hide when an anonymous type is folded as a closure. Works on plain
+ * source text and a token index only, so it needs neither the Java model nor a viewer. Instances
+ * reuse their {@link RegionDemarkator} and must not be shared between threads.
+ */
+class LambdaRegionComputer {
+
+	static final String FUNCTION_RELATION_TOKEN = "/* => */";
+
+	static final String FUNCTION_RELATION_TOKEN_ONELINE = "// => ";
+
+	private final RegionDemarkator marker = new RegionDemarkator();
+
+	/* facts about the closure being computed, established for complete(...) */
+	private int paramsCount;
+	private int parameterListOpenParen;
+	private int parameterListClosingParen;
+	private int methodCloseBraceOffset;
+	private int returnOffset;
+	private boolean singleStatement;
+	private int statementTerminator;
+	private int firstNonWhitespace;
+	private boolean emptyBody;
+
+	/**
+	 * Computes the projection regions of an anonymous type.
+	 * @param anomymousTypeSource the source of the anonymous type declaration
+	 * @param tokens the token index of the enclosing source, or <code>null</code> to scan the
+	 *        anonymous type source on its own
+	 * @param anonymousTypeOffset the offset of the declaration in the enclosing source
+	 * @param useClauseFolding whether the anonymous type is the single argument of a higher order
+	 *        method, see {@link #isSingleParameterToHigherOrderMethod(CharSequence, int, int)}
+	 * @param editables collects the editable parameter name regions, may be <code>null</code>
+	 * @return the regions to hide, in absolute offsets
+	 */
+	IRegion[] compute(String anomymousTypeSource, TokenIndex tokens, int anonymousTypeOffset,
+	        boolean useClauseFolding, RegionDemarkator editables) {
+
+		int anonymousTypeLength = anomymousTypeSource.length();
+
+		if (editables != null) {
+			editables.initialOffset = anonymousTypeOffset;
+		}
+
+		RegionDemarkator marker = this.marker;
+		marker.reset(anonymousTypeOffset);
+		marker.start(0);
+
+		ScannerHelper scan = tokens != null ? new ScannerHelper(tokens, anonymousTypeOffset,
+		        anonymousTypeLength) : new ScannerHelper(anomymousTypeSource);
+
+		scan.seekCorresponding(TokenNameLBRACE);
+		int f = scan.offset;
+
+		marker.end(f);
+		marker.start(f);
+
+		int openingBraceRegion = marker.end(++f);
+		marker.start(f);
+
+		// Seek parenthese opening parameter list
+		scan.seekCorresponding(TokenNameLPAREN);
+
+		int parameterListOpenParenOffset = scan.offset;
+
+		marker.end(parameterListOpenParenOffset);
+		marker.start(parameterListOpenParenOffset);
+		parameterListOpenParen = marker.end(parameterListOpenParenOffset + 1);
+		marker.start(parameterListOpenParenOffset + 1);
+
+		paramsCount = 0;
+
+		for (;;) {
+			int t = scan.seekCorrespondingWithTypeParameterBrackets(TokenNameCOMMA, TokenNameRPAREN);
+			if (scan.identifierLength >= 0) {
+				paramsCount++;
+				marker.end(scan.identifierOffset);
+
+				if (editables != null) {
+					editables.start(scan.identifierOffset);
+					editables.end(scan.identifierOffset + scan.identifierLength);
+				}
+
+				if (t == TokenNameCOMMA) {
+					scan.seekAnyExcept(TokenNameWHITESPACE);
+					marker.start(scan.offset);
+				}
+			}
+
+			if (t == TokenNameRPAREN || t < 0) {
+				break;
+			}
+		}
+
+		int rparenOffset = scan.offset;
+
+		if (!marker.started)
+			marker.start(rparenOffset);
+
+		parameterListClosingParen = marker.end(rparenOffset + 1);
+
+		marker.start(rparenOffset + 1);
+
+		int lastPreMethodOffset = rparenOffset + 1;
+
+		scan.seekCorresponding(TokenNameLBRACE);
+
+		int methodOpeningBraceOffset = scan.offset;
+
+		// find where we go past all throws declaration if any
+		if (scan.identifierOffset > lastPreMethodOffset) {
+			lastPreMethodOffset = scan.identifierOffset + scan.identifierLength;
+			while (anomymousTypeSource.charAt(lastPreMethodOffset) == ' ') {
+				lastPreMethodOffset++;
+			}
+		}
+
+		int methodCloseBraceOffset = -1;
+		int returnOffset = -1;
+		boolean singleStatement = true;
+		int statementTerminator = -1;
+		int firstNonWhitespace = -1;
+		int lastBraceBlockEnd = -1;
+
+		bodyScanLoop: for (;;) {
+			int t = scan.seekCorresponding(TokenNameSEMICOLON, TokenNameRBRACE, TokenNamereturn);
+
+			if (scan.wasFlowControlStatement)
+				singleStatement = false;
+
+			lastBraceBlockEnd = scan.lastBraceBlockEnd;
+
+			if (firstNonWhitespace < 0)
+				firstNonWhitespace = scan.firstNonWhitespace;
+
+			switch (t) {
+			case TokenNameSEMICOLON:
+				if (statementTerminator > 0 && singleStatement)
+					singleStatement = false;
+
+				statementTerminator = scan.offset;
+				continue bodyScanLoop;
+
+			case TokenNamereturn:
+				returnOffset = scan.offset;
+				continue bodyScanLoop;
+
+			case TokenNameRBRACE:
+				methodCloseBraceOffset = scan.offset;
+			}
+
+			break;
+		}
+
+		if (lastBraceBlockEnd > statementTerminator) {
+			statementTerminator = lastBraceBlockEnd;
+			singleStatement = false;
+		}
+
+		this.methodCloseBraceOffset = methodCloseBraceOffset;
+		this.returnOffset = returnOffset;
+		this.singleStatement = singleStatement;
+		this.statementTerminator = statementTerminator;
+		this.firstNonWhitespace = firstNonWhitespace;
+		this.emptyBody = lastBraceBlockEnd < 0 && statementTerminator < 0;
+
+		return complete(anomymousTypeSource, anonymousTypeOffset, useClauseFolding,
+		        lastPreMethodOffset, methodOpeningBraceOffset, scan.lineEnds());
+	}
+
+	/**
+	 * Computes the projection regions of an anonymous type from the source ranges of its nodes.
+	 * Only a few delimiters which the AST does not report are looked up in the source, so that the
+	 * closure is not rescanned for its structure.
+	 * @param anomymousTypeSource the source of the anonymous type declaration
+	 * @param shape the shape of the anonymous type in an AST of the enclosing source
+	 * @param anonymousTypeOffset the offset of the declaration in the enclosing source
+	 * @param useClauseFolding whether the anonymous type is the single argument of a higher order
+	 *        method, see {@link #isSingleParameterToHigherOrderMethod(CharSequence, int, int)}
+	 * @param editables collects the editable parameter name regions, may be <code>null</code>
+	 * @return the regions to hide, in absolute offsets, or <code>null</code> if the shape does not
+	 *         match the source, for example because the AST is outdated
+	 */
+	IRegion[] compute(String anomymousTypeSource, LambdaShape shape, int anonymousTypeOffset,
+	        boolean useClauseFolding, RegionDemarkator editables) {
+
+		int anonymousTypeLength = anomymousTypeSource.length();
+		if (shape.typeOffset != anonymousTypeOffset || shape.typeLength != anonymousTypeLength)
+			return null;
+
+		int bodyStart = shape.bodyStart - anonymousTypeOffset;
+		int methodOpeningBraceOffset = shape.methodBodyStart - anonymousTypeOffset;
+		int methodCloseBraceOffset = shape.methodBodyEnd - anonymousTypeOffset;
+		if (!charAt(anomymousTypeSource, bodyStart, '{') ||
+		        !charAt(anomymousTypeSource, methodOpeningBraceOffset, '{') ||
+		        !charAt(anomymousTypeSource, methodCloseBraceOffset, '}') ||
+		        !charAt(anomymousTypeSource, anonymousTypeLength - 1, '}'))
+			return null;
+
+		int parameterListOpenParenOffset = indexOfCode(anomymousTypeSource, shape.methodNameEnd -
+		        anonymousTypeOffset, methodOpeningBraceOffset, '(');
+		int rparenOffset = indexOfCode(anomymousTypeSource, shape.parametersEnd >= 0
+		        ? shape.parametersEnd - anonymousTypeOffset : parameterListOpenParenOffset + 1,
+		        methodOpeningBraceOffset, ')');
+		if (parameterListOpenParenOffset < 0 || rparenOffset < 0)
+			return null;
+
+		if (editables != null) {
+			editables.initialOffset = anonymousTypeOffset;
+		}
+
+		RegionDemarkator marker = this.marker;
+		marker.reset(anonymousTypeOffset);
+		marker.start(0);
+		marker.end(bodyStart);
+		marker.start(bodyStart);
+		marker.end(bodyStart + 1);
+		marker.start(bodyStart + 1);
+
+		marker.end(parameterListOpenParenOffset);
+		marker.start(parameterListOpenParenOffset);
+		parameterListOpenParen = marker.end(parameterListOpenParenOffset + 1);
+		marker.start(parameterListOpenParenOffset + 1);
+
+		paramsCount = shape.parameterNameStarts.length;
+		for (int i = 0; i < paramsCount; i++) {
+			int identifierOffset = shape.parameterNameStarts[i] - anonymousTypeOffset;
+			marker.end(identifierOffset);
+
+			if (editables != null) {
+				editables.start(identifierOffset);
+				editables.end(identifierOffset + shape.parameterNameLengths[i]);
+			}
+
+			if (i + 1 < paramsCount)
+				marker.start(shape.parameterStarts[i + 1] - anonymousTypeOffset);
+		}
+
+		if (!marker.started)
+			marker.start(rparenOffset);
+
+		parameterListClosingParen = marker.end(rparenOffset + 1);
+
+		marker.start(rparenOffset + 1);
+
+		// go past the throws declaration if any
+		int lastPreMethodOffset = rparenOffset + 1;
+		int throwsEnd = lastIdentifierEnd(anomymousTypeSource, lastPreMethodOffset,
+		        methodOpeningBraceOffset);
+		if (throwsEnd > lastPreMethodOffset) {
+			lastPreMethodOffset = throwsEnd;
+			while (anomymousTypeSource.charAt(lastPreMethodOffset) == ' ') {
+				lastPreMethodOffset++;
+			}
+		}
+
+		this.methodCloseBraceOffset = methodCloseBraceOffset;
+		this.returnOffset = shape.returnStart >= 0 ? shape.returnStart - anonymousTypeOffset : -1;
+		this.singleStatement = shape.singleStatement;
+		this.statementTerminator = shape.statementCount > 0 ? shape.lastStatementEnd -
+		        anonymousTypeOffset - 1 : -1;
+		this.firstNonWhitespace = shape.statementCount > 0 ? shape.firstStatementStart -
+		        anonymousTypeOffset : methodCloseBraceOffset;
+		this.emptyBody = shape.statementCount == 0;
+
+		return complete(anomymousTypeSource, anonymousTypeOffset, useClauseFolding,
+		        lastPreMethodOffset, methodOpeningBraceOffset, lineEnds(anomymousTypeSource,
+		                methodOpeningBraceOffset, methodCloseBraceOffset));
+	}
+
+	/**
+	 * Hides the rest of the method declaration and its body, from the facts established by the
+	 * computation of either source.
+	 */
+	private IRegion[] complete(String anomymousTypeSource, int anonymousTypeOffset,
+	        boolean useClauseFolding, int lastPreMethodOffset, int methodOpeningBraceOffset,
+	        int[] lineEnds) {
+
+		RegionDemarkator marker = this.marker;
+		int anonymousTypeLength = anomymousTypeSource.length();
+
+		int indexOfArrowComment = anomymousTypeSource.indexOf(FUNCTION_RELATION_TOKEN);
+
+		if (indexOfArrowComment >= lastPreMethodOffset &&
+		        indexOfArrowComment < methodOpeningBraceOffset)
+			lastPreMethodOffset = indexOfArrowComment + FUNCTION_RELATION_TOKEN.length();
+
+		int oneLineTokenIndex = anomymousTypeSource.indexOf(FUNCTION_RELATION_TOKEN_ONELINE);
+		if (oneLineTokenIndex >= lastPreMethodOffset) {
+			do {
+				char c = anomymousTypeSource.charAt(oneLineTokenIndex);
+				if (c == '\n' || c == '\r')
+					break;
+
+				oneLineTokenIndex++;
+			} while (oneLineTokenIndex < methodOpeningBraceOffset);
+			lastPreMethodOffset = oneLineTokenIndex;
+		}
+
+		// and hide it
+
+		boolean hasPreBraceRegion = lastPreMethodOffset < methodOpeningBraceOffset;
+		if (hasPreBraceRegion) {
+			marker.end(lastPreMethodOffset);
+			marker.start(lastPreMethodOffset);
+		}
+
+		int preBraceRegion = marker.end(methodOpeningBraceOffset);
+		marker.start(methodOpeningBraceOffset);
+		int methodOpeningBrace = marker.end(methodOpeningBraceOffset + 1);
+
+		int methodCloseBraceOffset = this.methodCloseBraceOffset;
+		int returnOffset = this.returnOffset;
+		int statementTerminator = this.statementTerminator;
+		int firstNonWhitespace = this.firstNonWhitespace;
+
+		if (singleStatement && !(useClauseFolding && returnOffset < 0)) {
+
+			if (paramsCount > 0) {
+				marker.reveal(parameterListOpenParen);// Show opening parameter paren
+				marker.reveal(parameterListClosingParen);// Show closing parameter paren
+			}
+
+			// Show up method openingBrace
+			marker.reveal(methodOpeningBrace);
+
+			if (returnOffset > 0) {
+
+				marker.start(methodOpeningBraceOffset + 1); // from after opening of method body
+				marker.end(returnOffset + 7); // to end of return keyword
+
+				marker.start(statementTerminator);// From before last semicolon
+				marker.end(anonymousTypeLength - 1);// to end on anonymous type definition
+
+			} else if (emptyBody) {
+
+				marker.start(methodOpeningBraceOffset + 1); // from after opening of method body
+				marker.end(anonymousTypeLength - 1);// to end on anonymous type definition
+
+			} else {
+				marker.start(methodOpeningBraceOffset + 1); // from after opening of method body
+				marker.end(firstNonWhitespace);// to begin of statement
+
+				marker.start(statementTerminator + 1);// From before last semicolon
+				marker.end(anonymousTypeLength - 1);// to end on anonymous type definition
+			}
+		} else {
+
+			if (paramsCount > 0) {
+				marker.reveal(parameterListOpenParen);// Show opening parameter paren
+				marker.reveal(parameterListClosingParen);// Show closing parameter paren
+			}
+
+			if (hasPreBraceRegion) {
+				marker.reveal(preBraceRegion);
+			}
+
+			// Show up method openingBrace
+			marker.reveal(methodOpeningBrace);
+
+			if (statementTerminator < 0) {
+				statementTerminator = methodCloseBraceOffset - 2;
+			}
+
+			marker.start(statementTerminator + 1); // hide lines from body end
+			// to anonymous class end (exclusive)
+			marker.end(methodCloseBraceOffset + 1);
+
+			eatUpExtraTabsOnEachLine(anomymousTypeSource, marker, lineEnds, lastPreMethodOffset,
+			        methodCloseBraceOffset);
+
+			if (useClauseFolding)
+				try {
+					Region prefix = new Region(anonymousTypeOffset - 1, 1);
+					Region suffix = new Region(anonymousTypeOffset + anonymousTypeLength, 2);
+					return marker.toProcessedArray(prefix, suffix);
+
+				} catch (Exception e) {
+					e.printStackTrace();
+				}
+		}
+
+		return marker.toProcessedArray();
+	}
+
+	private void eatUpExtraTabsOnEachLine(String anomymousTypeSource, RegionDemarkator marker,
+	        int[] lineEnds, int startOffset, int endOffset) {
+		for (int index : lineEnds) {
+			if (index < startOffset || index > endOffset)
+				continue;
+			char startingNextLine = anomymousTypeSource.charAt(index + 1);
+			if (startingNextLine == '\t') {
+				marker.start(index + 1);
+				marker.end(index + 2);
+			} else {
+				boolean hasTabInFormOf4Spaces = true;
+				for (int i = index + 1; i < index + 5; i++) {
+					if (anomymousTypeSource.charAt(i) != ' ') {
+						hasTabInFormOf4Spaces = false;
+						break;
+					}
+				}
+				if (hasTabInFormOf4Spaces) {
+					marker.start(index + 1);
+					marker.end(index + 5);
+				}
+			}
+		}
+	}
+
+	private static boolean charAt(String source, int offset, char expected) {
+		return offset >= 0 && offset < source.length() && source.charAt(offset) == expected;
+	}
+
+	/**
+	 * Returns the offset of the given character in <code>[from, to)</code>, skipping whitespace and
+	 * comments only.
+	 * @return the offset, or <code>-1</code> if another character comes first
+	 */
+	private static int indexOfCode(String source, int from, int to, char expected) {
+		for (int i = from; i >= 0 && i < to; i++) {
+			char c = source.charAt(i);
+			if (c == expected)
+				return i;
+			if (Character.isWhitespace(c))
+				continue;
+			int end = skipComment(source, i, to);
+			if (end < 0)
+				return -1;
+			i = end - 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the end of the last identifier or keyword in <code>[from, to)</code>, skipping
+	 * comments.
+	 * @return the end offset, or <code>-1</code> if there is none
+	 */
+	private static int lastIdentifierEnd(String source, int from, int to) {
+		int last = -1;
+		for (int i = from; i < to; i++) {
+			char c = source.charAt(i);
+			if (Character.isJavaIdentifierStart(c)) {
+				while (i < to && Character.isJavaIdentifierPart(source.charAt(i)))
+					i++;
+				last = i--;
+			} else if (c == '/') {
+				int end = skipComment(source, i, to);
+				if (end > 0)
+					i = end - 1;
+			}
+		}
+		return last;
+	}
+
+	/**
+	 * Returns the end of the comment starting at <code>offset</code>, or <code>-1</code> if there
+	 * is no comment.
+	 */
+	private static int skipComment(String source, int offset, int to) {
+		if (offset + 1 >= to || source.charAt(offset) != '/')
+			return -1;
+		char next = source.charAt(offset + 1);
+		if (next == '/') {
+			int i = offset + 2;
+			while (i < to && source.charAt(i) != '\n' && source.charAt(i) != '\r')
+				i++;
+			return i;
+		}
+		if (next == '*') {
+			int end = source.indexOf("*/", offset + 2); //$NON-NLS-1$
+			return end >= 0 && end + 2 <= to ? end + 2 : -1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the offsets of the line delimiters in <code>[from, to)</code>, the last character of
+	 * each delimiter.
+	 */
+	private static int[] lineEnds(String source, int from, int to) {
+		int count = 0;
+		int[] ends = new int[16];
+		for (int i = from; i < to; i++) {
+			char c = source.charAt(i);
+			if (c == '\n' || c == '\r' && (i + 1 >= source.length() || source.charAt(i + 1) != '\n')) {
+				if (count == ends.length) {
+					int[] grown = new int[count * 2];
+					System.arraycopy(ends, 0, grown, 0, count);
+					ends = grown;
+				}
+				ends[count++] = i;
+			}
+		}
+		int[] result = new int[count];
+		System.arraycopy(ends, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * Returns <code>true</code> if the anonymous type declared in the given range is the single
+	 * argument of a method call, like in <code>list.each(new Closure() {...});</code>.
+	 * @throws IndexOutOfBoundsException if the declaration is not surrounded by enough text
+	 */
+	static boolean isSingleParameterToHigherOrderMethod(CharSequence source,
+	        int declarationOffset, int declarationLength) {
+		return regionEquals(source, declarationOffset - 1, "(new") &&
+		        regionEquals(source, declarationOffset + declarationLength - 1, "});");
+	}
+
+	private static boolean regionEquals(CharSequence source, int offset, String expected) {
+		if (offset < 0 || offset + expected.length() > source.length())
+			throw new IndexOutOfBoundsException(String.valueOf(offset));
+		for (int i = 0; i < expected.length(); i++) {
+			if (source.charAt(offset + i) != expected.charAt(i))
+				return false;
+		}
+		return true;
+	}
+}
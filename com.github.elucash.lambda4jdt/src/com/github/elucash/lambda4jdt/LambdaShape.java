@@ -0,0 +1,119 @@
+package com.github.elucash.lambda4jdt;
+
+import java.util.List;
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.AnonymousClassDeclaration;
+import org.eclipse.jdt.core.dom.Block;
+import org.eclipse.jdt.core.dom.ClassInstanceCreation;
+import org.eclipse.jdt.core.dom.ExpressionStatement;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.ReturnStatement;
+import org.eclipse.jdt.core.dom.SingleVariableDeclaration;
+import org.eclipse.jdt.core.dom.Statement;
+import org.eclipse.jdt.core.dom.ThrowStatement;
+import org.eclipse.jdt.core.dom.VariableDeclarationStatement;
+
+/**
+ * Source ranges of the nodes of a lambda, an anonymous type declaring a single method only, as
+ * reported by an AST. All offsets are absolute. Regions are computed from a shape by
+ * {@link LambdaRegionComputer#compute(String, LambdaShape, int, boolean, RegionDemarkator)}
+ * without scanning the closure for its structure.
+ */
+final class LambdaShape {
+
+	/** Range of the anonymous type, from the instance creation to the closing brace */
+	final int typeOffset;
+	final int typeLength;
+	/** Opening brace of the anonymous type body */
+	final int bodyStart;
+	/** End of the method name, the parameter list follows */
+	final int methodNameEnd;
+	/** Start of each parameter declaration, including modifiers */
+	final int[] parameterStarts;
+	/** Name of each parameter */
+	final int[] parameterNameStarts;
+	final int[] parameterNameLengths;
+	/** End of the last parameter declaration, or <code>-1</code> if there are none */
+	final int parametersEnd;
+	/** Opening and closing brace of the method body */
+	final int methodBodyStart;
+	final int methodBodyEnd;
+	final int statementCount;
+	/** Start of the first and end of the last statement, or <code>-1</code> without statements */
+	final int firstStatementStart;
+	final int lastStatementEnd;
+	/** Whether the body is a single statement that ends with a semicolon */
+	final boolean singleStatement;
+	/** Start of the last statement if it is a return statement, <code>-1</code> otherwise */
+	final int returnStart;
+
+	private LambdaShape(ClassInstanceCreation creation, AnonymousClassDeclaration type,
+	        MethodDeclaration method) {
+		typeOffset = creation.getStartPosition();
+		typeLength = type.getStartPosition() + type.getLength() - typeOffset;
+		bodyStart = type.getStartPosition();
+		methodNameEnd = end(method.getName());
+
+		List<?> parameters = method.parameters();
+		int count = parameters.size();
+		parameterStarts = new int[count];
+		parameterNameStarts = new int[count];
+		parameterNameLengths = new int[count];
+		for (int i = 0; i < count; i++) {
+			SingleVariableDeclaration parameter = (SingleVariableDeclaration) parameters.get(i);
+			parameterStarts[i] = parameter.getStartPosition();
+			parameterNameStarts[i] = parameter.getName().getStartPosition();
+			parameterNameLengths[i] = parameter.getName().getLength();
+		}
+		parametersEnd = count > 0 ? end((ASTNode) parameters.get(count - 1)) : -1;
+
+		Block body = method.getBody();
+		methodBodyStart = body.getStartPosition();
+		methodBodyEnd = end(body) - 1;
+
+		List<?> statements = body.statements();
+		statementCount = statements.size();
+		if (statementCount > 0) {
+			Statement first = (Statement) statements.get(0);
+			Statement last = (Statement) statements.get(statementCount - 1);
+			firstStatementStart = first.getStartPosition();
+			lastStatementEnd = end(last);
+			singleStatement = statementCount == 1 && isSimple(last);
+			returnStart = last instanceof ReturnStatement ? last.getStartPosition() : -1;
+		} else {
+			firstStatementStart = -1;
+			lastStatementEnd = -1;
+			singleStatement = true;
+			returnStart = -1;
+		}
+	}
+
+	/**
+	 * Returns the shape of the given anonymous type, or <code>null</code> if it is no lambda or its
+	 * nodes are not fully recovered.
+	 * @param type the anonymous type
+	 * @return the shape or <code>null</code>
+	 */
+	static LambdaShape of(AnonymousClassDeclaration type) {
+		if (!(type.getParent() instanceof ClassInstanceCreation))
+			return null;
+		List<?> declarations = type.bodyDeclarations();
+		if (declarations.size() != 1 || !(declarations.get(0) instanceof MethodDeclaration))
+			return null;
+		MethodDeclaration method = (MethodDeclaration) declarations.get(0);
+		if (method.getBody() == null || (type.getFlags() & ASTNode.MALFORMED) != 0 ||
+		        (method.getFlags() & (ASTNode.MALFORMED | ASTNode.RECOVERED)) != 0)
+			return null;
+		return new LambdaShape((ClassInstanceCreation) type.getParent(), type, method);
+	}
+
+	private static boolean isSimple(Statement statement) {
+		return statement instanceof ExpressionStatement || statement instanceof ReturnStatement ||
+		        statement instanceof VariableDeclarationStatement ||
+		        statement instanceof ThrowStatement;
+	}
+
+	private static int end(ASTNode node) {
+		return node.getStartPosition() + node.getLength();
+	}
+}
@@ -0,0 +1,204 @@
+package com.github.elucash.lambda4jdt;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.jdt.core.IJavaElement;
+import org.eclipse.jdt.core.ISourceRange;
+import org.eclipse.jdt.core.IType;
+import org.eclipse.jdt.core.JavaModelException;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.AnonymousClassDeclaration;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
+
+/**
+ * Classifies the anonymous types of a compilation unit as lambdas, that is anonymous types
+ * declaring a single method only. The classification is taken once from the AST of each reconcile,
+ * so that answering it for a type neither walks the Java model nor copies source. Anonymous types
+ * are identified by the offset of their closing brace, on which the AST and the Java model of the
+ * same reconcile agree. The classification records the hash of the document content it was taken
+ * for, and is only answered while the document still has that content. Whether it still has is
+ * decided once per document modification stamp. An edit made while the AST was created but before
+ * it was classified is only detected if it changes the length of the source.
+ * <p>
+ * The same pass optionally records the {@link LambdaShape shape} of each lambda, from which its
+ * projection regions are computed without rescanning it.
+ * </p>
+ * <p>
+ * Thread safe, each AST replaces the classification as a whole.
+ * </p>
+ */
+class LambdaTypeClassifier {
+
+	/**
+	 * Classification of an AST, along with the length and hash of the content it was taken for.
+	 */
+	private static final class Classification {
+		/** Anonymous types by closing brace offset, mapped to being a lambda */
+		final Map<Integer, Boolean> types;
+		/** Shapes of the lambdas by source range */
+		final Map<Long, LambdaShape> shapes;
+		final int sourceLength;
+		final long sourceHash;
+
+		Classification(Map<Integer, Boolean> types, Map<Long, LambdaShape> shapes,
+		        int sourceLength, long sourceHash) {
+			this.types = types;
+			this.shapes = shapes;
+			this.sourceLength = sourceLength;
+			this.sourceHash = sourceHash;
+		}
+	}
+
+	/**
+	 * Outcome of comparing a classification with the document content of a modification stamp.
+	 */
+	private static final class Verification {
+		final Classification classification;
+		final long stamp;
+		final boolean current;
+
+		Verification(Classification classification, long stamp, boolean current) {
+			this.classification = classification;
+			this.stamp = stamp;
+			this.current = current;
+		}
+	}
+
+	private static final Map<Long, LambdaShape> NO_SHAPES = Collections.emptyMap();
+	private static final Classification EMPTY = new Classification(
+	        Collections.<Integer, Boolean> emptyMap(), NO_SHAPES, -1, 0);
+
+	/** Classification of the last AST */
+	private volatile Classification classification = EMPTY;
+	/** Last verification of the classification, <code>null</code> if none */
+	private volatile Verification verification;
+
+	/**
+	 * Replaces the classification with the one of the given AST.
+	 * @param ast the AST of the compilation unit
+	 * @param document the document the AST was created from, the classification is discarded if
+	 *        its length differs from the one of the AST
+	 * @param withShapes whether to record the shapes of the lambdas as well
+	 */
+	void update(CompilationUnit ast, IDocument document, final boolean withShapes) {
+		// the compilation unit node spans the whole source
+		int sourceLength = ast.getStartPosition() + ast.getLength();
+		if (document == null) {
+			clear();
+			return;
+		}
+		long stamp = getModificationStamp(document);
+		String content = document.get();
+		if (content.length() != sourceLength) {
+			clear();
+			return;
+		}
+
+		final Map<Integer, Boolean> classified = new HashMap<Integer, Boolean>();
+		final Map<Long, LambdaShape> shaped = withShapes ? new HashMap<Long, LambdaShape>()
+		        : NO_SHAPES;
+		ast.accept(new ASTVisitor() {
+			public boolean visit(AnonymousClassDeclaration node) {
+				List<?> body = node.bodyDeclarations();
+				boolean lambda = body.size() == 1 && body.get(0) instanceof MethodDeclaration;
+				classified.put(Integer.valueOf(node.getStartPosition() + node.getLength() - 1),
+				        Boolean.valueOf(lambda));
+				if (lambda && withShapes) {
+					LambdaShape shape = LambdaShape.of(node);
+					if (shape != null)
+						shaped.put(key(shape.typeOffset, shape.typeLength), shape);
+				}
+				return true;
+			}
+		});
+		Classification updated = new Classification(classified, shaped, sourceLength,
+		        FoldingSnapshot.hash(content));
+		classification = updated;
+		verification = stamp != IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP ? new Verification(
+		        updated, stamp, true) : null;
+	}
+
+	void clear() {
+		classification = EMPTY;
+		verification = null;
+	}
+
+	/**
+	 * Returns the shape of the lambda with the given source range in the last AST.
+	 * @param offset the offset of the anonymous type
+	 * @param length the length of the anonymous type
+	 * @param document the document the range refers to
+	 * @return the shape, or <code>null</code> if unknown or the AST is outdated
+	 */
+	LambdaShape getShape(int offset, int length, IDocument document) {
+		Classification current = classification;
+		if (current.shapes.isEmpty() || !isCurrent(current, document))
+			return null;
+		return current.shapes.get(key(offset, length));
+	}
+
+	private static Long key(int offset, int length) {
+		return Long.valueOf(((long) offset << 32) | (length & 0xFFFFFFFFL));
+	}
+
+	/**
+	 * Returns whether the given element is an anonymous type declaring a single method only.
+	 * @param element the element
+	 * @param document the document of the element's compilation unit
+	 * @return {@link Boolean#TRUE} or {@link Boolean#FALSE}, or <code>null</code> if the element is
+	 *         an anonymous type not known from the last AST or the AST is outdated
+	 */
+	Boolean isLambda(IJavaElement element, IDocument document) {
+		if (element == null || element.getElementType() != IJavaElement.TYPE)
+			return Boolean.FALSE;
+		try {
+			IType type = (IType) element;
+			if (!type.isAnonymous())
+				return Boolean.FALSE;
+			Classification current = classification;
+			// closing brace offsets of an outdated AST may denote other types by now
+			if (current.types.isEmpty() || !isCurrent(current, document))
+				return null;
+			ISourceRange range = type.getSourceRange();
+			if (range == null || range.getOffset() < 0)
+				return null;
+			return current.types.get(Integer.valueOf(range.getOffset() + range.getLength() - 1));
+		} catch (JavaModelException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns whether the document still has the content the given classification was taken for.
+	 * The outcome is remembered for the modification stamp of the document, so that the content is
+	 * only hashed once after each change of the same length.
+	 * @param current the classification
+	 * @param document the document, may be <code>null</code>
+	 * @return <code>true</code> if the classification describes the document
+	 */
+	private boolean isCurrent(Classification current, IDocument document) {
+		if (document == null || document.getLength() != current.sourceLength)
+			return false;
+		long stamp = getModificationStamp(document);
+		Verification last = verification;
+		if (last != null && last.classification == current && last.stamp == stamp &&
+		        stamp != IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP)
+			return last.current;
+
+		boolean matches = FoldingSnapshot.hash(document.get()) == current.sourceHash;
+		if (stamp != IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP)
+			verification = new Verification(current, stamp, matches);
+		return matches;
+	}
+
+	private static long getModificationStamp(IDocument document) {
+		if (document instanceof IDocumentExtension4)
+			return ((IDocumentExtension4) document).getModificationStamp();
+		return IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+	}
+}
@@ -0,0 +1,155 @@
+package com.github.elucash.lambda4jdt;
+
+import java.util.Arrays;
+import org.eclipse.swt.custom.StyledText;
+import org.eclipse.swt.custom.StyledTextContent;
+import org.eclipse.swt.graphics.FontMetrics;
+import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Point;
+import org.eclipse.swt.graphics.Rectangle;
+
+/**
+ * Line geometry of the paint cycle in progress. The annotation painter hands the same GC with the
+ * same clipping area to all annotations drawn for one paint event, so the two together identify
+ * the cycle. The lines intersecting the clipping area are computed once per cycle, line ends and
+ * their locations once per line. The cycle ends once the display gets back to its event loop, so
+ * no GC is held beyond the paint event it belongs to. Only used on the display thread.
+ */
+class LineGeometry {
+
+	private static final int UNKNOWN = -1;
+
+	private GC gc;
+	private Rectangle clipping;
+	private StyledText textWidget;
+	private boolean endPending;
+	private int firstLine;
+	private int lastLine;
+	private int ascent;
+	private int averageCharWidth;
+
+	/* per visible line, indexed by line - firstLine */
+	private int[] lineEnds = new int[64];
+	private int[] lineEndX = new int[64];
+	private int[] lineY = new int[64];
+
+	/**
+	 * Starts drawing an annotation, beginning a new paint cycle if needed.
+	 * @return the widget line of <code>offset</code>, or <code>-1</code> if the line is outside of
+	 *         the clipping area and nothing needs to be drawn
+	 */
+	int begin(GC gc, StyledText textWidget, int offset) {
+		Rectangle clipping = gc.getClipping();
+		if (gc != this.gc || textWidget != this.textWidget || !clipping.equals(this.clipping))
+			beginCycle(gc, clipping, textWidget);
+
+		int line = textWidget.getContent().getLineAtOffset(offset);
+		if (line < firstLine || line > lastLine)
+			return -1;
+		return line;
+	}
+
+	private void beginCycle(GC gc, Rectangle clipping, StyledText textWidget) {
+		this.gc = gc;
+		this.clipping = clipping;
+		this.textWidget = textWidget;
+		if (!endPending) {
+			endPending = true;
+			textWidget.getDisplay().asyncExec(endCycle);
+		}
+
+		firstLine = textWidget.getLineIndex(Math.max(0, clipping.y));
+		lastLine = textWidget.getLineIndex(Math.max(0, clipping.y + clipping.height - 1));
+
+		FontMetrics metrics = gc.getFontMetrics();
+		ascent = metrics.getAscent();
+		averageCharWidth = metrics.getAverageCharWidth();
+
+		int lines = lastLine - firstLine + 1;
+		if (lineEnds.length < lines) {
+			int capacity = Math.max(lines, lineEnds.length * 2);
+			lineEnds = new int[capacity];
+			lineEndX = new int[capacity];
+			lineY = new int[capacity];
+		}
+		Arrays.fill(lineEnds, 0, lines, UNKNOWN);
+	}
+
+	/** Drops the references of the paint cycle once the paint event has been handled */
+	private final Runnable endCycle = new Runnable() {
+		public void run() {
+			endPending = false;
+			gc = null;
+			clipping = null;
+			textWidget = null;
+		}
+	};
+
+	/**
+	 * Returns <code>true</code> if the line of <code>offset</code> is within the viewport of the
+	 * widget; used to cull clearing requests, which are not bound to a paint cycle.
+	 */
+	static boolean isVisible(StyledText textWidget, int offset) {
+		int line = textWidget.getContent().getLineAtOffset(offset);
+		if (line < textWidget.getTopIndex())
+			return false;
+		return textWidget.getLinePixel(line) < textWidget.getClientArea().height;
+	}
+
+	/**
+	 * Returns the widget offset of the end of a line, excluding the delimiter that actually ends
+	 * the line, which may differ from the default delimiter of the widget in files with mixed line
+	 * endings. Only the delimiter is read, not the line text.
+	 */
+	static int lineEndOffset(StyledTextContent content, int line) {
+		if (line + 1 >= content.getLineCount())
+			return content.getCharCount();
+		int start = content.getOffsetAtLine(line);
+		int end = content.getOffsetAtLine(line + 1);
+		int tail = Math.min(2, end - start);
+		if (tail == 0)
+			return end;
+		String delimiter = content.getTextRange(end - tail, tail);
+		if (delimiter.charAt(tail - 1) == '\n') {
+			end--;
+			tail--;
+		}
+		if (tail > 0 && delimiter.charAt(tail - 1) == '\r')
+			end--;
+		return end;
+	}
+
+	int lineEnd(int line) {
+		ensureLineEnd(line);
+		return lineEnds[line - firstLine];
+	}
+
+	int lineEndX(int line) {
+		ensureLineEnd(line);
+		return lineEndX[line - firstLine];
+	}
+
+	int lineY(int line) {
+		ensureLineEnd(line);
+		return lineY[line - firstLine];
+	}
+
+	int ascent() {
+		return ascent;
+	}
+
+	int averageCharWidth() {
+		return averageCharWidth;
+	}
+
+	private void ensureLineEnd(int line) {
+		int i = line - firstLine;
+		if (lineEnds[i] != UNKNOWN)
+			return;
+		int end = lineEndOffset(textWidget.getContent(), line);
+		Point location = textWidget.getLocationAtOffset(end);
+		lineEnds[i] = end;
+		lineEndX[i] = location.x;
+		lineY[i] = location.y;
+	}
+}
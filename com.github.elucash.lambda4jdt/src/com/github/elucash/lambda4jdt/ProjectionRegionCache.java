@@ -0,0 +1,72 @@
+package com.github.elucash.lambda4jdt;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
+import org.eclipse.jface.text.IRegion;
+
+/**
+ * Bounded cache of lambda projection regions keyed by source range. Entries are only valid for the
+ * document modification stamp they were computed for, the whole cache is dropped once the stamp
+ * changes.
+ */
+class ProjectionRegionCache {
+
+	private final Map<Long, IRegion[]> entries;
+	private long stamp = IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+
+	ProjectionRegionCache(final int capacity) {
+		entries = new LinkedHashMap<Long, IRegion[]>(capacity, 0.75f, true) {
+			protected boolean removeEldestEntry(Map.Entry<Long, IRegion[]> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	synchronized IRegion[] get(IDocument document, int offset, int length) {
+		if (!validate(document))
+			return null;
+		IRegion[] regions = entries.get(key(offset, length));
+		return regions != null ? regions.clone() : null;
+	}
+
+	synchronized void put(IDocument document, int offset, int length, IRegion[] regions) {
+		if (regions != null && validate(document))
+			entries.put(key(offset, length), regions.clone());
+	}
+
+	/**
+	 * Returns the cached entries, keyed by <code>offset &lt;&lt; 32 | length</code>.
+	 * @param document the document the entries must be valid for
+	 * @return a copy of the entries, empty if they are not valid for the document
+	 */
+	synchronized Map<Long, IRegion[]> getEntries(IDocument document) {
+		Map<Long, IRegion[]> copy = new LinkedHashMap<Long, IRegion[]>();
+		if (validate(document))
+			copy.putAll(entries);
+		return copy;
+	}
+
+	synchronized void clear() {
+		entries.clear();
+		stamp = IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+	}
+
+	private boolean validate(IDocument document) {
+		if (!(document instanceof IDocumentExtension4))
+			return false;
+		long current = ((IDocumentExtension4) document).getModificationStamp();
+		if (current == IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP)
+			return false;
+		if (current != stamp) {
+			entries.clear();
+			stamp = current;
+		}
+		return true;
+	}
+
+	private static Long key(int offset, int length) {
+		return Long.valueOf(((long) offset << 32) | (length & 0xFFFFFFFFL));
+	}
+}
@@ -1,20 +1,41 @@
 package com.github.elucash.lambda4jdt;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.Arrays;
 import org.eclipse.jface.text.IRegion;
 import org.eclipse.jface.text.Region;
 
+/**
+ * Collects hidden regions of a closure. Regions are packed as offset/length pairs into a reusable
+ * int array and referred to by their slot; revealed regions are tombstoned in place. Instances
+ * may be {@link #reset(int) reset} and reused for any number of closures.
+ */
 class RegionDemarkator {
 
-	private LinkedList<RegionHandle> regions = new LinkedList<RegionHandle>();
+	private static final int REVEALED = -1;
+
+	/** offset/length pairs, indexed by region slot */
+	private int[] regions = new int[32];
+	private int count;
+	/** scratch sort keys: offset in the high, slot in the low word */
+	private long[] sortKeys = new long[16];
+
 	private int startedOffset = -1;
 	int initialOffset;
 	int finalOffset;
 	boolean wasZeroOffset = false;
 
+	/**
+	 * Clears all regions and prepares for a closure starting at <code>initialOffset</code>.
+	 */
+	void reset(int initialOffset) {
+		this.initialOffset = initialOffset;
+		finalOffset = 0;
+		count = 0;
+		startedOffset = -1;
+		started = false;
+		wasZeroOffset = false;
+	}
+
 	void start(int offset) {
 		if (offset == 0) {
 			if (wasZeroOffset)
@@ -30,7 +51,11 @@ class RegionDemarkator {
 
 	boolean started;
 
-	RegionHandle end(int end) {
+	/**
+	 * Ends the started region.
+	 * @return the slot of the region, to {@link #reveal(int) reveal} it later on
+	 */
+	int end(int end) {
 		end += initialOffset;
 
 		if (startedOffset < 0 || end < startedOffset)
@@ -42,100 +67,127 @@ class RegionDemarkator {
 		return range(offset, end - offset);
 	}
 
-	private RegionHandle range(int offset, int length) {
-		RegionHandle region = new RegionHandle(offset, length);
-		regions.add(region);
-		return region;
-	}
-
-	IRegion[] toProcessedArray(IRegion prefix, IRegion suffix) {
-		ArrayList<IRegion> processedList = processToList();
-		processedList.add(finalOffset, prefix);
-		processedList.add(suffix);
-		return processedList.toArray(new IRegion[processToList().size()]);
-
+	private int range(int offset, int length) {
+		if (count * 2 == regions.length) {
+			int[] grown = new int[regions.length * 2];
+			System.arraycopy(regions, 0, grown, 0, regions.length);
+			regions = grown;
+		}
+		int slot = count++;
+		regions[slot * 2] = offset;
+		regions[slot * 2 + 1] = length;
+		return slot;
 	}
 
-	IRegion[] toProcessedArray() {
-		return processToList().toArray(new IRegion[processToList().size()]);
+	/**
+	 * Excludes the region in the given slot from the hidden regions.
+	 */
+	void reveal(int slot) {
+		if (slot >= 0 && slot < count)
+			regions[slot * 2 + 1] = REVEALED;
 	}
 
-	private ArrayList<IRegion> processToList() {
-		ArrayList<IRegion> result = new ArrayList<IRegion>();
-		Collections.sort(regions);
-
-		RegionHandle lastRegion = null;
-		for (RegionHandle r : regions) {
-			if (!r.mergeIfPossibleTo(lastRegion)) {
-				addIfNotObsolete(result, lastRegion);
-				lastRegion = r;
-			}
+	IRegion[] toProcessedArray(IRegion prefix, IRegion suffix) {
+		int processed = process();
+		if (finalOffset < 0 || finalOffset > processed)
+			throw new IndexOutOfBoundsException("Index: " + finalOffset + ", Size: " + processed);
+
+		IRegion[] result = new IRegion[processed + 2];
+		int j = 0;
+		for (int i = 0; i < processed; i++) {
+			if (i == finalOffset)
+				result[j++] = prefix;
+			result[j++] = toRegion(i);
 		}
-		addIfNotObsolete(result, lastRegion);
+		if (finalOffset == processed)
+			result[j++] = prefix;
+		result[j] = suffix;
 		return result;
 	}
 
-	private void addIfNotObsolete(List<IRegion> result, RegionHandle region) {
-		if (region != null)
-			if (region.correct())
-				result.add(region.toRegion());
+	IRegion[] toProcessedArray() {
+		int processed = process();
+		IRegion[] result = new IRegion[processed];
+		for (int i = 0; i < processed; i++)
+			result[i] = toRegion(i);
+		return result;
 	}
 
-	class RegionHandle implements Comparable<RegionHandle> {
-
-		int offset;
-		int length;
-
-		RegionHandle(int offset, int length) {
-			this.offset = offset;
-			this.length = length;
-		}
+	private Region toRegion(int processedIndex) {
+		return new Region((int) (sortKeys[processedIndex] >>> 32), (int) sortKeys[processedIndex]);
+	}
 
-		void reveal() {
-			regions.remove(this);
+	/**
+	 * Sorts the live regions by offset (keeping insertion order for equal offsets), merges
+	 * adjacent and overlapping ones and drops obsolete ones in a single pass. The processed regions
+	 * are left as packed offset/length pairs in the head of {@link #sortKeys}.
+	 * @return the number of processed regions
+	 */
+	private int process() {
+		if (sortKeys.length < count)
+			sortKeys = new long[Math.max(count, sortKeys.length * 2)];
+
+		int live = 0;
+		for (int slot = 0; slot < count; slot++) {
+			if (regions[slot * 2 + 1] != REVEALED)
+				sortKeys[live++] = ((long) regions[slot * 2] << 32) | slot;
 		}
-
-		public int compareTo(RegionHandle o) {
-			return offset - o.offset;
+		Arrays.sort(sortKeys, 0, live);
+
+		int processed = 0;
+		int lastOffset = 0;
+		int lastLength = 0;
+		boolean hasLast = false;
+		for (int i = 0; i < live; i++) {
+			int slot = (int) sortKeys[i];
+			int offset = regions[slot * 2];
+			int length = regions[slot * 2 + 1];
+
+			// goes after last region and begins before or just right after its end
+			int lastEnd = lastOffset + lastLength;
+			if (hasLast && offset >= lastOffset && offset <= lastEnd) {
+				if (offset + length > lastEnd)
+					lastLength = offset + length - lastOffset;
+				continue;
+			}
+			if (hasLast)
+				processed = addIfNotObsolete(processed, lastOffset, lastLength);
+			lastOffset = offset;
+			lastLength = length;
+			hasLast = true;
 		}
+		if (hasLast)
+			processed = addIfNotObsolete(processed, lastOffset, lastLength);
+		return processed;
+	}
 
-		private boolean correct() {
-			if (length == 0)
-				return false;
-
-			if (finalOffset > initialOffset) {
-				if (offset >= finalOffset)
-					return false;
+	/*
+	 * Processed regions never outrun the sorted keys they are read from, so they are written back
+	 * in place.
+	 */
+	private int addIfNotObsolete(int processed, int offset, int length) {
+		if (length == 0)
+			return processed;
 
-				if (offset + length > finalOffset) {
-					length = finalOffset - offset;
-				}
-			}
+		if (finalOffset > initialOffset) {
+			if (offset >= finalOffset)
+				return processed;
 
-			return true;
+			if (offset + length > finalOffset)
+				length = finalOffset - offset;
 		}
 
-		private boolean mergeIfPossibleTo(RegionHandle r) {
-			if (r == null)
-				return false;
-			// goes after region r and begins before or just right after region r end
-			int endOfR = r.offset + r.length;
-			if (offset >= r.offset && offset <= endOfR) {
-				int requiredLength = offset + length;
-				if (requiredLength > endOfR)
-					r.length = requiredLength - r.offset;
-
-				return true;
-			}
-			return false;
-		}
-
-		private Region toRegion() {
-			return new Region(offset, length);
-		}
+		sortKeys[processed] = ((long) offset << 32) | (length & 0xFFFFFFFFL);
+		return processed + 1;
+	}
 
-		public String toString() {
-			return "[" + offset + '+' + length + ']';
+	public String toString() {
+		StringBuilder buffer = new StringBuilder();
+		for (int slot = 0; slot < count; slot++) {
+			if (regions[slot * 2 + 1] != REVEALED)
+				buffer.append('[').append(regions[slot * 2]).append('+')
+				        .append(regions[slot * 2 + 1]).append(']');
 		}
+		return buffer.toString();
 	}
 }
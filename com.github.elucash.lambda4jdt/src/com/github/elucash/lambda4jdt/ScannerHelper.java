@@ -1,28 +1,42 @@
 package com.github.elucash.lambda4jdt;
 
 import static org.eclipse.jdt.core.compiler.ITerminalSymbols.*;
-import org.eclipse.jdt.core.ToolFactory;
-import org.eclipse.jdt.core.compiler.IScanner;
 import org.eclipse.jdt.core.compiler.InvalidInputException;
 
+/**
+ * Navigates the tokens of a source range recorded in a {@link TokenIndex}. All reported offsets
+ * are relative to the start of the range.
+ */
 class ScannerHelper {
 
-	final IScanner scanner;
+	private final TokenIndex index;
+	private final int base;
+	private final int length;
+	private final int limit;
+	private int next;
+	private int currentStart = -1;
+	private int currentEnd = -1;
+
 	boolean eof;
 	int token = -1;
 	int offset = -1;
 	int endOffset = -1;
-	char[] identifier;
+	int identifierLength = -1;
 	int firstNonWhitespace = -1;
 	int identifierOffset = -1;
 	boolean wasFlowControlStatement;
 	int lastBraceBlockEnd = -1;
 
 	ScannerHelper(String source) {
-		this.scanner = ToolFactory.createScanner(false, false, true, true);
-		char[] charArraySource = source.toCharArray();
-		scanner.setSource(charArraySource);
-		scanner.resetTo(0, charArraySource.length);
+		this(new TokenIndex(source.toCharArray()), 0, source.length());
+	}
+
+	ScannerHelper(TokenIndex index, int offset, int length) {
+		this.index = index;
+		this.base = offset;
+		this.length = length;
+		this.next = index.tokenAt(offset);
+		this.limit = index.tokenAt(offset + length);
 	}
 
 	private int updateFields(int lastToken) {
@@ -33,8 +47,8 @@ class ScannerHelper {
 			offset = -1;
 		} else {
 			token = lastToken;
-			offset = scanner.getCurrentTokenStartPosition();
-			endOffset = scanner.getCurrentTokenEndPosition();
+			offset = currentStart;
+			endOffset = currentEnd;
 			eof = false;
 		}
 		return token;
@@ -44,18 +58,31 @@ class ScannerHelper {
 		wasFlowControlStatement = false;
 		lastBraceBlockEnd = -1;
 		firstNonWhitespace = -1;
-		identifier = null;
+		identifierLength = -1;
 		identifierOffset = -1;
 	}
 
 	private int nextToken() throws InvalidInputException {
-		int t = scanner.getNextToken();
+		int t;
+		if (next < limit) {
+			t = index.kind(next);
+			currentStart = index.start(next) - base;
+			currentEnd = index.end(next) - base;
+			next++;
+			if (t == TokenIndex.TokenNameINVALID)
+				throw new InvalidInputException();
+		} else {
+			t = TokenNameEOF;
+			currentStart = length;
+			currentEnd = length - 1;
+		}
+
 		if (t == TokenNameIdentifier) {
-			identifier = scanner.getCurrentTokenSource();
-			identifierOffset = scanner.getCurrentTokenStartPosition();
+			identifierLength = currentEnd - currentStart + 1;
+			identifierOffset = currentStart;
 		}
 		if (t != TokenNameWHITESPACE && firstNonWhitespace < 0) {
-			firstNonWhitespace = scanner.getCurrentTokenStartPosition();
+			firstNonWhitespace = currentStart;
 		}
 		if (t == TokenNamewhile || t == TokenNamedo || t == TokenNameif || t == TokenNamefor ||
 		        t == TokenNametry) {
@@ -65,7 +92,7 @@ class ScannerHelper {
 	}
 
 	int[] lineEnds() {
-		return scanner.getLineEnds();
+		return index.lineEnds(base, length);
 	}
 
 	int seek(int... tokensToSeek) {
@@ -139,7 +166,7 @@ class ScannerHelper {
 					break;
 				case TokenNameRBRACE:
 					nestingLevel--;
-					lastBraceBlockEnd = scanner.getCurrentTokenStartPosition();
+					lastBraceBlockEnd = currentStart;
 					break;
 				}
 			}
@@ -172,7 +199,7 @@ class ScannerHelper {
 					break;
 				case TokenNameRBRACE:
 					nestingLevel--;
-					lastBraceBlockEnd = scanner.getCurrentTokenStartPosition();
+					lastBraceBlockEnd = currentStart;
 					break;
 				}
 			}
@@ -0,0 +1,129 @@
+package com.github.elucash.lambda4jdt;
+
+import static org.eclipse.jdt.core.compiler.ITerminalSymbols.*;
+import org.eclipse.jdt.core.ToolFactory;
+import org.eclipse.jdt.core.compiler.IScanner;
+import org.eclipse.jdt.core.compiler.InvalidInputException;
+
+/**
+ * Token stream of a whole source recorded in a single scanner pass. Token kinds, offsets and line
+ * ends are kept in primitive arrays, so that any number of {@link ScannerHelper}s can navigate
+ * ranges of the source without rescanning it.
+ */
+class TokenIndex {
+
+	/** Pseudo token recorded where the scanner reported invalid input */
+	static final int TokenNameINVALID = -2;
+
+	private int[] kinds;
+	private int[] starts;
+	private int[] ends;
+	private int count;
+	private final int[] lineEnds;
+
+	TokenIndex(char[] source) {
+		int capacity = Math.max(16, source.length / 4);
+		kinds = new int[capacity];
+		starts = new int[capacity];
+		ends = new int[capacity];
+
+		IScanner scanner = ToolFactory.createScanner(false, false, true, true);
+		scanner.setSource(source);
+		scanner.resetTo(0, source.length);
+
+		int lastInvalidStart = -1;
+		for (;;) {
+			int t;
+			try {
+				t = scanner.getNextToken();
+			} catch (InvalidInputException e) {
+				t = TokenNameINVALID;
+			}
+			if (t == TokenNameEOF)
+				break;
+
+			int start = scanner.getCurrentTokenStartPosition();
+			add(t, start, scanner.getCurrentTokenEndPosition());
+
+			if (t == TokenNameINVALID) {
+				if (start <= lastInvalidStart)
+					break; // scanner does not advance anymore
+				lastInvalidStart = start;
+			}
+		}
+		lineEnds = scanner.getLineEnds();
+	}
+
+	private void add(int kind, int start, int end) {
+		if (count == kinds.length) {
+			kinds = grow(kinds);
+			starts = grow(starts);
+			ends = grow(ends);
+		}
+		kinds[count] = kind;
+		starts[count] = start;
+		ends[count] = end;
+		count++;
+	}
+
+	private static int[] grow(int[] array) {
+		int[] grown = new int[array.length * 2];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	int kind(int token) {
+		return kinds[token];
+	}
+
+	int start(int token) {
+		return starts[token];
+	}
+
+	int end(int token) {
+		return ends[token];
+	}
+
+	/**
+	 * Returns the index of the first token starting at or after <code>offset</code>, the token
+	 * count if there is none.
+	 */
+	int tokenAt(int offset) {
+		int low = 0;
+		int high = count;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (starts[mid] < offset)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Returns the line ends within <code>[offset, offset + length)</code>, relative to
+	 * <code>offset</code>.
+	 */
+	int[] lineEnds(int offset, int length) {
+		int from = lowerBound(lineEnds, offset);
+		int to = lowerBound(lineEnds, offset + length);
+		int[] result = new int[to - from];
+		for (int i = from; i < to; i++)
+			result[i - from] = lineEnds[i] - offset;
+		return result;
+	}
+
+	private static int lowerBound(int[] array, int value) {
+		int low = 0;
+		int high = array.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (array[mid] < value)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+}
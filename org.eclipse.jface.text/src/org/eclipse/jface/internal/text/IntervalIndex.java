@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2008 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jface.internal.text;
+
+
+/**
+ * Immutable index over intervals sorted by their start offset.
+ * <p>
+ * The intervals are kept in arrays sorted by start offset which are read as an implicit binary
+ * search tree: the node at index <code>i</code> is on level <code>k</code> if the lowest
+ * <code>k</code> bits of <code>i</code> are set and bit <code>k</code> is cleared, its children
+ * are at <code>i &plusmn; 2<sup>k-1</sup></code>. Each node is augmented with the maximum end
+ * offset of its subtree, so that a query visits only the subtrees that can intersect with the
+ * query range and reports <code>k</code> hits in <code>O(log n + k)</code>, however long the
+ * intervals before the query range are.
+ * </p>
+ *
+ * @since 3.7
+ */
+public final class IntervalIndex {
+
+	/** Subtrees up to this level are scanned linearly. */
+	private static final int SCAN_LEVEL= 3;
+
+	private final int[] fStarts;
+	private final int[] fEnds;
+	/** Maximum end offset of the subtree rooted at each node. */
+	private final int[] fMaxEnds;
+	private final int fLevels;
+
+	/**
+	 * Builds the index of the given intervals. The arrays are not copied and must not be modified
+	 * afterwards.
+	 *
+	 * @param starts the start offsets, sorted ascending
+	 * @param ends the end offsets, parallel to the start offsets
+	 */
+	public IntervalIndex(int[] starts, int[] ends) {
+		fStarts= starts;
+		fEnds= ends;
+		fMaxEnds= new int[starts.length];
+		fLevels= augment();
+	}
+
+	/**
+	 * Computes the maximum end offsets of all subtrees, bottom up.
+	 *
+	 * @return the level of the root node
+	 */
+	private int augment() {
+		int n= fStarts.length;
+		if (n == 0)
+			return -1;
+
+		int lastIndex= 0;
+		int lastMax= 0;
+		for (int i= 0; i < n; i+= 2) {
+			lastIndex= i;
+			lastMax= fMaxEnds[i]= fEnds[i];
+		}
+
+		int k= 1;
+		for (; 1 << k <= n; k++) {
+			int half= 1 << (k - 1);
+			int step= half << 2;
+			for (int i= (half << 1) - 1; i < n; i+= step) {
+				int left= fMaxEnds[i - half];
+				// a missing right child stands for the rightmost, incomplete subtree
+				int right= i + half < n ? fMaxEnds[i + half] : lastMax;
+				fMaxEnds[i]= Math.max(fEnds[i], Math.max(left, right));
+			}
+			// move to the parent of the rightmost node, the node is a right child if bit k is set
+			lastIndex= ((lastIndex >> k) & 1) != 0 ? lastIndex - half : lastIndex + half;
+			if (lastIndex < n && fMaxEnds[lastIndex] > lastMax)
+				lastMax= fMaxEnds[lastIndex];
+		}
+		return k - 1;
+	}
+
+	/**
+	 * Returns the number of indexed intervals.
+	 *
+	 * @return the number of intervals
+	 */
+	public int size() {
+		return fStarts.length;
+	}
+
+	/**
+	 * Returns the intervals that intersect with or touch the closed range
+	 * <code>[offset, offset + length]</code>, that is all intervals starting at or before
+	 * <code>offset + length</code> and ending at or after <code>offset</code>.
+	 *
+	 * @param offset the range offset
+	 * @param length the range length
+	 * @return the indices of the matching intervals, ascending
+	 */
+	public int[] findOverlapping(int offset, int length) {
+		if (fLevels < 0)
+			return new int[0];
+
+		int[] result= new int[8];
+		int count= 0;
+
+		int n= fStarts.length;
+		int end= offset + length;
+
+		// explicit stack of (node, level, visited) triples, deep enough for any int sized tree
+		int[] nodes= new int[64];
+		int[] levels= new int[64];
+		boolean[] visited= new boolean[64];
+		int top= 0;
+		nodes[top]= (1 << fLevels) - 1;
+		levels[top]= fLevels;
+		visited[top++]= false;
+
+		while (top > 0) {
+			top--;
+			int x= nodes[top];
+			int k= levels[top];
+
+			if (k <= SCAN_LEVEL) {
+				int from= x >> k << k;
+				int to= Math.min(n, from + (1 << (k + 1)) - 1);
+				for (int i= from; i < to && fStarts[i] <= end; i++) {
+					if (fEnds[i] >= offset) {
+						if (count == result.length)
+							result= grow(result);
+						result[count++]= i;
+					}
+				}
+			} else if (!visited[top]) {
+				int left= x - (1 << (k - 1));
+				visited[top++]= true;
+				// only nodes within the array know the maximum end of their subtree
+				if (left >= n || fMaxEnds[left] >= offset) {
+					nodes[top]= left;
+					levels[top]= k - 1;
+					visited[top++]= false;
+				}
+			} else if (x < n && fStarts[x] <= end) {
+				if (fEnds[x] >= offset) {
+					if (count == result.length)
+						result= grow(result);
+					result[count++]= x;
+				}
+				nodes[top]= x + (1 << (k - 1));
+				levels[top]= k - 1;
+				visited[top++]= false;
+			}
+		}
+
+		if (count == result.length)
+			return result;
+		int[] trimmed= new int[count];
+		System.arraycopy(result, 0, trimmed, 0, count);
+		return trimmed;
+	}
+
+	private static int[] grow(int[] array) {
+		int[] grown= new int[array.length * 2];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+}
@@ -12,6 +12,7 @@
 package org.eclipse.jface.text.contentassist;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 import org.eclipse.osgi.util.TextProcessor;
@@ -58,6 +59,10 @@ import org.eclipse.core.commands.ExecutionException;
 import org.eclipse.core.commands.IHandler;
 
 import org.eclipse.core.runtime.Assert;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 
 import org.eclipse.jface.bindings.keys.KeySequence;
 import org.eclipse.jface.bindings.keys.SWTKeySupport;
@@ -261,6 +266,51 @@ class CompletionProposalPopup implements IContentAssistListener {
 		}
 	}
 
+	/**
+	 * Computes the completion proposals at an offset in a background job and hands them to the
+	 * popup on the display thread, unless the computation has been canceled or replaced meanwhile.
+	 *
+	 * @since 3.7
+	 */
+	private final class ProposalComputation extends Job {
+		private final int fOffset;
+		private final boolean fAutoActivated;
+		private final Display fDisplay;
+
+		private ProposalComputation(int offset, boolean autoActivated, Display display) {
+			super(JFaceTextMessages.getString("CompletionProposalPopup.job_name")); //$NON-NLS-1$
+			fOffset= offset;
+			fAutoActivated= autoActivated;
+			fDisplay= display;
+			setSystem(true);
+			setPriority(INTERACTIVE);
+		}
+
+		protected IStatus run(IProgressMonitor monitor) {
+			ICompletionProposal[] proposals= null;
+			IStatus status= Status.OK_STATUS;
+			try {
+				proposals= computeProposals(fOffset);
+			} catch (RuntimeException x) {
+				// still report the computation as done so that the popup does not wait forever
+				status= new Status(IStatus.WARNING, "org.eclipse.jface.text", IStatus.OK, "", x); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			if (monitor.isCanceled())
+				return Status.CANCEL_STATUS;
+
+			final ICompletionProposal[] result= proposals;
+			if (!fDisplay.isDisposed()) {
+				fDisplay.asyncExec(new Runnable() {
+					public void run() {
+						if (fComputation == ProposalComputation.this)
+							proposalsComputed(result, fAutoActivated);
+					}
+				});
+			}
+			return status;
+		}
+	}
+
 	private final class CommandKeyListener extends KeyAdapter {
 		private final KeySequence fCommandSequence;
 
@@ -365,6 +415,18 @@ class CompletionProposalPopup implements IContentAssistListener {
 				return;
 
 			int offset= fContentAssistSubjectControlAdapter.getSelectedRange().x;
+			if (fComputation != null && offset > -1) {
+				// the proposals are not there yet, compute them at the new offset instead
+				boolean autoActivated= fComputation.fAutoActivated;
+				fComputation.cancel();
+				fDocumentEvents.clear();
+				fInvocationOffset= offset;
+				fFilterOffset= offset;
+				fLastCompletionOffset= offset;
+				startComputation(autoActivated);
+				return;
+			}
+
 			ICompletionProposal[] proposals= null;
 			try  {
 				if (offset > -1) {
@@ -428,6 +490,38 @@ class CompletionProposalPopup implements IContentAssistListener {
 	 * @since 3.4
 	 */
 	private boolean fIsColoredLabelsSupportEnabled= false;
+	/**
+	 * The pending asynchronous proposal computation, or <code>null</code> if none.
+	 * Only accessed in the display thread.
+	 *
+	 * @since 3.7
+	 */
+	private ProposalComputation fComputation;
+	/**
+	 * Counts the asynchronous invocations, so that the timeout of an earlier one does not open the
+	 * popup of a later one.
+	 *
+	 * @since 3.7
+	 */
+	private int fComputationSession;
+	/**
+	 * The filter index over the proposals that are currently filtered, or <code>null</code>.
+	 *
+	 * @since 3.7
+	 */
+	private ProposalFilterIndex fFilterIndex;
+	/**
+	 * The result of the last filtering through <code>fFilterIndex</code>, or <code>null</code>.
+	 *
+	 * @since 3.7
+	 */
+	private ICompletionProposal[] fIndexedProposals;
+	/**
+	 * The positions of <code>fIndexedProposals</code> in the proposals of <code>fFilterIndex</code>.
+	 *
+	 * @since 3.7
+	 */
+	private BitSet fFilteredIndices;
 
 
 	/**
@@ -469,6 +563,9 @@ class CompletionProposalPopup implements IContentAssistListener {
 	 */
 	public String showProposals(final boolean autoActivated) {
 
+		if (fComputation != null)
+			return null; // the proposals of the previous invocation are still being computed
+
 		if (fKeyListener == null)
 			fKeyListener= new ProposalSelectionListener();
 
@@ -479,6 +576,30 @@ class CompletionProposalPopup implements IContentAssistListener {
 			// when the user types fast.
 			fContentAssistSubjectControlAdapter.addKeyListener(fKeyListener);
 
+			if (fContentAssistant.isAsynchronousComputation()) {
+				fInvocationOffset= fContentAssistSubjectControlAdapter.getSelectedRange().x;
+				fFilterOffset= fInvocationOffset;
+				fLastCompletionOffset= fFilterOffset;
+				// typing restarts the computation, see fFilterRunnable
+				ensureDocumentListenerInstalled();
+				startComputation(autoActivated);
+
+				final int session= ++fComputationSession;
+				if (!autoActivated) {
+					control.getDisplay().timerExec(fContentAssistant.getAsynchronousTimeout(), new Runnable() {
+						public void run() {
+							if (fComputation != null && session == fComputationSession && !Helper.okToUse(fProposalShell)
+									&& Helper.okToUse(fContentAssistSubjectControlAdapter.getControl())) {
+								createProposalSelector();
+								setProposals(null, false);
+								displayProposals();
+							}
+						}
+					});
+				}
+				return null;
+			}
+
 			BusyIndicator.showWhile(control.getDisplay(), new Runnable() {
 				public void run() {
 
@@ -509,6 +630,75 @@ class CompletionProposalPopup implements IContentAssistListener {
 		return getErrorMessage();
 	}
 
+	/**
+	 * Starts computing the proposals at the invocation offset in the background.
+	 *
+	 * @param autoActivated <code>true</code> if auto activation context
+	 * @since 3.7
+	 */
+	private void startComputation(boolean autoActivated) {
+		Display display= fContentAssistSubjectControlAdapter.getControl().getDisplay();
+		fComputation= new ProposalComputation(fInvocationOffset, autoActivated, display);
+		fComputation.schedule();
+	}
+
+	/**
+	 * Presents the proposals of the asynchronous computation, either in the popup that has
+	 * already been opened after the timeout or the same way as synchronously computed proposals.
+	 * <p>
+	 * The proposals only apply at the invocation offset. If an edit is about to be filtered, they
+	 * are computed again at the new offset. If the caret moved without an edit, they are dropped.
+	 * </p>
+	 *
+	 * @param proposals the computed proposals, may be <code>null</code>
+	 * @param autoActivated <code>true</code> if auto activation context
+	 * @since 3.7
+	 */
+	private void proposalsComputed(ICompletionProposal[] proposals, boolean autoActivated) {
+		fComputation= null;
+
+		if (!Helper.okToUse(fContentAssistSubjectControlAdapter.getControl())) {
+			hide();
+			return;
+		}
+
+		int offset= fContentAssistSubjectControlAdapter.getSelectedRange().x;
+		if (fIsFilterPending) {
+			// the pending filter would restart the computation as well, see fFilterRunnable
+			fIsFilterPending= false;
+			fDocumentEvents.clear();
+			fInvocationOffset= offset;
+			fFilterOffset= offset;
+			fLastCompletionOffset= offset;
+			startComputation(autoActivated);
+			return;
+		}
+		if (offset != fInvocationOffset) {
+			hide();
+			return;
+		}
+
+		fComputedProposals= proposals;
+
+		int count= (fComputedProposals == null ? 0 : fComputedProposals.length);
+		if (count == 0 && hideWhenNoProposals(autoActivated))
+			return;
+
+		if (Helper.okToUse(fProposalShell)) {
+			setProposals(fComputedProposals, false);
+			return;
+		}
+
+		if (count == 1 && !autoActivated && canAutoInsert(fComputedProposals[0])) {
+			insertProposal(fComputedProposals[0], (char) 0, 0, fInvocationOffset);
+			hide();
+		} else {
+			createProposalSelector();
+			setProposals(fComputedProposals, false);
+			displayProposals();
+		}
+	}
+
 	/**
 	 * Hides the popup and returns <code>true</code> if the popup is configured
 	 * to never display an empty list. Returns <code>false</code> otherwise.
@@ -1007,6 +1197,11 @@ class CompletionProposalPopup implements IContentAssistListener {
 	 */
 	public void hide() {
 
+		if (fComputation != null) {
+			fComputation.cancel();
+			fComputation= null;
+		}
+
 		unregister();
 
 		if (fViewer instanceof IEditingSupportRegistry) {
@@ -1069,6 +1264,9 @@ class CompletionProposalPopup implements IContentAssistListener {
 
 		fFilteredProposals= null;
 		fComputedProposals= null;
+		fFilterIndex= null;
+		fIndexedProposals= null;
+		fFilteredIndices= null;
 
 		fContentAssistant.possibleCompletionsClosed();
 	}
@@ -1101,7 +1299,10 @@ class CompletionProposalPopup implements IContentAssistListener {
 
 			if (proposals == null || proposals.length == 0) {
 				fEmptyProposal.fOffset= fFilterOffset;
-				fEmptyProposal.fDisplayString= fEmptyMessage != null ? fEmptyMessage : JFaceTextMessages.getString("CompletionProposalPopup.no_proposals"); //$NON-NLS-1$
+				if (fComputation != null)
+					fEmptyProposal.fDisplayString= JFaceTextMessages.getString("CompletionProposalPopup.computing"); //$NON-NLS-1$
+				else
+					fEmptyProposal.fDisplayString= fEmptyMessage != null ? fEmptyMessage : JFaceTextMessages.getString("CompletionProposalPopup.no_proposals"); //$NON-NLS-1$
 				proposals= new ICompletionProposal[] { fEmptyProposal };
 			}
 
@@ -1415,13 +1616,19 @@ class CompletionProposalPopup implements IContentAssistListener {
 	/**
 	 * Computes the subset of already computed proposals that are still valid for
 	 * the given offset.
+	 * <p>
+	 * Proposals that provide a filter string are matched through an index built once for the
+	 * proposals of the session, see {@link ICompletionProposalExtension7}, only the others are
+	 * validated one by one. Narrowing the previous result only considers the proposals in it.
+	 * </p>
 	 *
 	 * @param offset the offset
 	 * @param event the merged document event
 	 * @return the set of filtered proposals
+	 * @throws BadLocationException if the typed text cannot be read from the document
 	 * @since 3.0
 	 */
-	private ICompletionProposal[] computeFilteredProposals(int offset, DocumentEvent event) {
+	private ICompletionProposal[] computeFilteredProposals(int offset, DocumentEvent event) throws BadLocationException {
 
 		if (offset == fInvocationOffset && event == null) {
 			fIsFilteredSubset= false;
@@ -1450,22 +1657,40 @@ class CompletionProposalPopup implements IContentAssistListener {
 			return null;
 		}
 
+		if (fFilterIndex == null || proposals != fFilterIndex.getProposals() && proposals != fIndexedProposals) {
+			fFilterIndex= new ProposalFilterIndex(proposals);
+			fIndexedProposals= null;
+			fFilteredIndices= null;
+		}
+
+		ICompletionProposal[] indexed= fFilterIndex.getProposals();
+		BitSet candidates;
+		if (proposals == fIndexedProposals) {
+			candidates= fFilteredIndices;
+		} else {
+			candidates= new BitSet(indexed.length);
+			candidates.set(0, indexed.length);
+		}
+
 		IDocument document= fContentAssistSubjectControlAdapter.getDocument();
-		int length= proposals.length;
-		List filtered= new ArrayList(length);
-		for (int i= 0; i < length; i++) {
+		BitSet filtered= new BitSet(indexed.length);
+		fFilterIndex.match(document, offset, candidates, filtered);
 
-			if (proposals[i] instanceof ICompletionProposalExtension2) {
+		BitSet unindexed= (BitSet) fFilterIndex.getUnindexed().clone();
+		unindexed.and(candidates);
+		for (int i= unindexed.nextSetBit(0); i >= 0; i= unindexed.nextSetBit(i + 1)) {
 
-				ICompletionProposalExtension2 p= (ICompletionProposalExtension2) proposals[i];
+			if (indexed[i] instanceof ICompletionProposalExtension2) {
+
+				ICompletionProposalExtension2 p= (ICompletionProposalExtension2) indexed[i];
 				if (p.validate(document, offset, event))
-					filtered.add(p);
+					filtered.set(i);
 
-			} else if (proposals[i] instanceof ICompletionProposalExtension) {
+			} else if (indexed[i] instanceof ICompletionProposalExtension) {
 
-				ICompletionProposalExtension p= (ICompletionProposalExtension) proposals[i];
+				ICompletionProposalExtension p= (ICompletionProposalExtension) indexed[i];
 				if (p.isValidFor(document, offset))
-					filtered.add(p);
+					filtered.set(i);
 
 			} else {
 				// restore original behavior
@@ -1477,7 +1702,13 @@ class CompletionProposalPopup implements IContentAssistListener {
 			}
 		}
 
-		return (ICompletionProposal[]) filtered.toArray(new ICompletionProposal[filtered.size()]);
+		ICompletionProposal[] result= new ICompletionProposal[filtered.cardinality()];
+		for (int i= filtered.nextSetBit(0), j= 0; i >= 0; i= filtered.nextSetBit(i + 1))
+			result[j++]= indexed[i];
+
+		fIndexedProposals= result;
+		fFilteredIndices= filtered;
+		return result;
 	}
 
 	/**
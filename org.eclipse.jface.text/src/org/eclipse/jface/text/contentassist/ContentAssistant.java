@@ -851,6 +851,7 @@ public class ContentAssistant implements IContentAssistant, IContentAssistantExt
 	 */
 	public static final int WIDGET_PRIORITY= 20;
 	private static final int DEFAULT_AUTO_ACTIVATION_DELAY= 500;
+	private static final int DEFAULT_ASYNCHRONOUS_TIMEOUT= 300;
 
 
 	private IInformationControlCreator fInformationControlCreator;
@@ -952,6 +953,19 @@ public class ContentAssistant implements IContentAssistant, IContentAssistantExt
 	 * @since 3.2
 	 */
 	private boolean fShowEmptyList= false;
+	/**
+	 * Tells whether completion proposals are computed asynchronously.
+	 *
+	 * @since 3.7
+	 */
+	private boolean fIsAsynchronous= false;
+	/**
+	 * The time in milliseconds after which the proposal popup is shown while an asynchronous
+	 * computation is still running.
+	 *
+	 * @since 3.7
+	 */
+	private int fAsynchronousTimeout= DEFAULT_ASYNCHRONOUS_TIMEOUT;
 	/**
 	 * The message line property.
 	 *
@@ -2289,6 +2303,58 @@ public class ContentAssistant implements IContentAssistant, IContentAssistantExt
 		return fShowEmptyList;
 	}
 
+	/**
+	 * Enables or disables the asynchronous computation of completion proposals. If enabled, the
+	 * content assist processor is called in a background job instead of the display thread, so it
+	 * must not access the widget. The popup opens once the proposals are available or the
+	 * {@link #setAsynchronousTimeout(int) timeout} elapsed, whichever comes first, and shows the
+	 * proposals as soon as they arrive. Typing while the proposals are computed cancels the
+	 * computation and restarts it at the new caret offset.
+	 * <p>
+	 * The default is <code>false</code>.
+	 * </p>
+	 *
+	 * @param enabled <code>true</code> to compute proposals asynchronously
+	 * @since 3.7
+	 */
+	public void enableAsynchronousComputation(boolean enabled) {
+		fIsAsynchronous= enabled;
+	}
+
+	/**
+	 * Returns whether completion proposals are computed asynchronously.
+	 *
+	 * @return <code>true</code> if proposals are computed asynchronously
+	 * @since 3.7
+	 */
+	boolean isAsynchronousComputation() {
+		return fIsAsynchronous;
+	}
+
+	/**
+	 * Sets the time after which the proposal popup is shown while proposals are still being
+	 * computed asynchronously. The popup then shows the proposals available so far and is updated
+	 * once the computation completes.
+	 *
+	 * @param timeout the timeout in milliseconds, must not be negative
+	 * @since 3.7
+	 */
+	public void setAsynchronousTimeout(int timeout) {
+		Assert.isLegal(timeout >= 0);
+		fAsynchronousTimeout= timeout;
+	}
+
+	/**
+	 * Returns the time after which the proposal popup is shown while proposals are still being
+	 * computed asynchronously.
+	 *
+	 * @return the timeout in milliseconds
+	 * @since 3.7
+	 */
+	int getAsynchronousTimeout() {
+		return fAsynchronousTimeout;
+	}
+
 	/*
 	 * @see org.eclipse.jface.text.contentassist.IContentAssistantExtension2#setStatusLineVisible(boolean)
 	 * @since 3.2
@@ -65,6 +65,12 @@ import org.eclipse.jface.text.IDocument;
  *				<li>Allow styled ranges in the display string.</li>
  *			</ul>
  * </li>
+ * <li>{@link org.eclipse.jface.text.contentassist.ICompletionProposalExtension7} since version 3.7 introducing
+ *		the following function:
+ *			<ul>
+ *				<li>Allow filtering through an index instead of validating each proposal.</li>
+ *			</ul>
+ * </li>
  * </ul>
  * </p>
  * <p>
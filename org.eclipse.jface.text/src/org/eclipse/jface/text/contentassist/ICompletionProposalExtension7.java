@@ -0,0 +1,53 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jface.text.contentassist;
+
+
+/**
+ * Extends {@link org.eclipse.jface.text.contentassist.ICompletionProposal} with the following
+ * function:
+ * <ul>
+ * 	<li>Allow filtering through an index instead of validating each proposal.</li>
+ * </ul>
+ * <p>
+ * A proposal that provides a filter string is valid at a document offset if the text between its
+ * {@link #getFilterOffset() filter offset} and that offset is, ignoring case, a prefix of the
+ * filter string, or if it matches the filter string by camel case: each part of the text that
+ * starts with an upper case letter is a prefix of the corresponding part of the filter string,
+ * for example <code>NuPE</code> matches <code>NullPointerException</code>. The completion
+ * proposal popup then filters such proposals through an index built once for all proposals of a
+ * session and does not call
+ * {@link ICompletionProposalExtension2#validate(org.eclipse.jface.text.IDocument, int, org.eclipse.jface.text.DocumentEvent)}
+ * or {@link ICompletionProposalExtension#isValidFor(org.eclipse.jface.text.IDocument, int)}.
+ * </p>
+ *
+ * @since 3.7
+ */
+public interface ICompletionProposalExtension7 {
+
+	/**
+	 * Returns the string the text typed after the {@link #getFilterOffset() filter offset} is
+	 * matched against, typically the name of the proposed element. The string must not change
+	 * while the proposal is displayed.
+	 *
+	 * @return the filter string, or <code>null</code> if this proposal must be validated
+	 *         through its other extensions
+	 */
+	String getFilterString();
+
+	/**
+	 * Returns the document offset from which on the typed text is matched against the
+	 * {@link #getFilterString() filter string}, typically the replacement offset.
+	 *
+	 * @return the filter offset
+	 */
+	int getFilterOffset();
+}
@@ -0,0 +1,285 @@
+/*******************************************************************************
+ * Copyright (c) 2010 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jface.text.contentassist;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.IDocument;
+
+
+/**
+ * Index over the filter strings of the proposals of a content assist session, see
+ * {@link ICompletionProposalExtension7}. Proposals are identified by their position in the
+ * indexed array, sets of proposals are bit sets over these positions.
+ * <p>
+ * For each filter offset, the filter strings are sorted once, ignoring case, and so are the
+ * initials of their camel case parts. The proposals matching the typed text are then a range of
+ * the former, and the camel case candidates a range of the latter.
+ * </p>
+ *
+ * @since 3.7
+ */
+final class ProposalFilterIndex {
+
+	/**
+	 * The proposals with the same filter offset, sorted by their filter string and by their
+	 * initials.
+	 */
+	private static final class Group {
+		private final int fOffset;
+		private final String[] fKeys;
+		private final int[] fKeyIndices;
+		private final String[] fInitials;
+		private final int[] fInitialIndices;
+
+		private Group(int offset, Entry[] byKey, Entry[] byInitials) {
+			fOffset= offset;
+			fKeys= new String[byKey.length];
+			fKeyIndices= new int[byKey.length];
+			for (int i= 0; i < byKey.length; i++) {
+				fKeys[i]= byKey[i].fKey;
+				fKeyIndices[i]= byKey[i].fIndex;
+			}
+			fInitials= new String[byInitials.length];
+			fInitialIndices= new int[byInitials.length];
+			for (int i= 0; i < byInitials.length; i++) {
+				fInitials[i]= byInitials[i].fKey;
+				fInitialIndices[i]= byInitials[i].fIndex;
+			}
+		}
+	}
+
+	private static final class Entry implements Comparable {
+		private final String fKey;
+		private final int fIndex;
+
+		private Entry(String key, int index) {
+			fKey= key;
+			fIndex= index;
+		}
+
+		public int compareTo(Object o) {
+			Entry other= (Entry) o;
+			int result= fKey.compareTo(other.fKey);
+			return result != 0 ? result : fIndex - other.fIndex;
+		}
+	}
+
+	private final ICompletionProposal[] fProposals;
+	/** The filter strings by proposal, <code>null</code> for proposals that are not indexed */
+	private final String[] fFilterStrings;
+	/** The proposals that are not indexed */
+	private final BitSet fUnindexed;
+	private final Group[] fGroups;
+
+	/**
+	 * Indexes the given proposals.
+	 *
+	 * @param proposals the proposals of the session
+	 */
+	ProposalFilterIndex(ICompletionProposal[] proposals) {
+		fProposals= proposals;
+		fFilterStrings= new String[proposals.length];
+		fUnindexed= new BitSet(proposals.length);
+
+		Map groups= new HashMap();
+		for (int i= 0; i < proposals.length; i++) {
+			String filterString= null;
+			int offset= -1;
+			if (proposals[i] instanceof ICompletionProposalExtension7) {
+				ICompletionProposalExtension7 p= (ICompletionProposalExtension7) proposals[i];
+				filterString= p.getFilterString();
+				offset= p.getFilterOffset();
+			}
+			if (filterString == null || offset < 0) {
+				fUnindexed.set(i);
+				continue;
+			}
+
+			fFilterStrings[i]= filterString;
+			Integer key= new Integer(offset);
+			List members= (List) groups.get(key);
+			if (members == null) {
+				members= new ArrayList();
+				groups.put(key, members);
+			}
+			members.add(new Integer(i));
+		}
+
+		fGroups= new Group[groups.size()];
+		int g= 0;
+		for (Iterator it= groups.entrySet().iterator(); it.hasNext();) {
+			Map.Entry group= (Map.Entry) it.next();
+			List members= (List) group.getValue();
+			Entry[] byKey= new Entry[members.size()];
+			Entry[] byInitials= new Entry[members.size()];
+			for (int i= 0; i < byKey.length; i++) {
+				int index= ((Integer) members.get(i)).intValue();
+				byKey[i]= new Entry(fFilterStrings[index].toLowerCase(), index);
+				byInitials[i]= new Entry(getInitials(fFilterStrings[index]), index);
+			}
+			Arrays.sort(byKey);
+			Arrays.sort(byInitials);
+			fGroups[g++]= new Group(((Integer) group.getKey()).intValue(), byKey, byInitials);
+		}
+	}
+
+	/**
+	 * Returns the indexed proposals.
+	 *
+	 * @return the proposals
+	 */
+	ICompletionProposal[] getProposals() {
+		return fProposals;
+	}
+
+	/**
+	 * Returns the proposals that are not indexed and have to be validated one by one.
+	 *
+	 * @return the unindexed proposals, must not be modified
+	 */
+	BitSet getUnindexed() {
+		return fUnindexed;
+	}
+
+	/**
+	 * Adds the indexed proposals among the candidates that are valid at the given offset to the
+	 * given result.
+	 *
+	 * @param document the document
+	 * @param offset the offset
+	 * @param candidates the proposals to consider
+	 * @param result the set to add the matching proposals to
+	 * @throws BadLocationException if the typed text cannot be read from the document
+	 */
+	void match(IDocument document, int offset, BitSet candidates, BitSet result) throws BadLocationException {
+		for (int g= 0; g < fGroups.length; g++) {
+			Group group= fGroups[g];
+			if (group.fOffset > offset)
+				continue;
+
+			String typed= document.get(group.fOffset, offset - group.fOffset);
+			String prefix= typed.toLowerCase();
+			int end= group.fKeys.length;
+			for (int i= lowerBound(group.fKeys, prefix); i < end && group.fKeys[i].startsWith(prefix); i++) {
+				int index= group.fKeyIndices[i];
+				if (candidates.get(index))
+					result.set(index);
+			}
+
+			if (!hasCamelCaseParts(typed))
+				continue;
+
+			String initials= getInitials(typed);
+			end= group.fInitials.length;
+			for (int i= lowerBound(group.fInitials, initials); i < end && group.fInitials[i].startsWith(initials); i++) {
+				int index= group.fInitialIndices[i];
+				if (candidates.get(index) && !result.get(index) && camelCaseMatch(typed, fFilterStrings[index]))
+					result.set(index);
+			}
+		}
+	}
+
+	/**
+	 * Returns the index of the first key that is not less than the given one.
+	 *
+	 * @param keys the sorted keys
+	 * @param key the key to search
+	 * @return the insertion point of the key
+	 */
+	private static int lowerBound(String[] keys, String key) {
+		int low= 0;
+		int high= keys.length;
+		while (low < high) {
+			int mid= (low + high) >>> 1;
+			if (keys[mid].compareTo(key) < 0)
+				low= mid + 1;
+			else
+				high= mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Returns whether the given text is split into camel case parts, that is whether it contains
+	 * an upper case letter after its first character.
+	 *
+	 * @param text the text
+	 * @return <code>true</code> if the text has more than one camel case part
+	 */
+	private static boolean hasCamelCaseParts(String text) {
+		for (int i= 1, length= text.length(); i < length; i++) {
+			if (Character.isUpperCase(text.charAt(i)))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the first characters of the camel case parts of the given string, in lower case.
+	 *
+	 * @param string the string
+	 * @return the initials
+	 */
+	private static String getInitials(String string) {
+		int length= string.length();
+		if (length == 0)
+			return string;
+
+		StringBuffer initials= new StringBuffer();
+		initials.append(Character.toLowerCase(string.charAt(0)));
+		for (int i= 1; i < length; i++) {
+			char c= string.charAt(i);
+			if (Character.isUpperCase(c))
+				initials.append(Character.toLowerCase(c));
+		}
+		return initials.toString();
+	}
+
+	/**
+	 * Returns whether each camel case part of the pattern is, ignoring case, a prefix of the
+	 * camel case part of the name at the same position.
+	 *
+	 * @param pattern the typed text
+	 * @param name the filter string
+	 * @return <code>true</code> if the pattern matches the name
+	 */
+	private static boolean camelCaseMatch(String pattern, String name) {
+		int p= 0;
+		int n= 0;
+		while (p < pattern.length()) {
+			if (n >= name.length())
+				return false;
+			int patternPartEnd= getPartEnd(pattern, p);
+			int namePartEnd= getPartEnd(name, n);
+			int partLength= patternPartEnd - p;
+			if (partLength > namePartEnd - n || !name.regionMatches(true, n, pattern, p, partLength))
+				return false;
+			p= patternPartEnd;
+			n= namePartEnd;
+		}
+		return true;
+	}
+
+	private static int getPartEnd(String string, int start) {
+		int end= start + 1;
+		while (end < string.length() && !Character.isUpperCase(string.charAt(end)))
+			end++;
+		return end;
+	}
+}
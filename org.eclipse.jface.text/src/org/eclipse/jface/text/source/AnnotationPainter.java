@@ -11,14 +11,11 @@
  *******************************************************************************/
 package org.eclipse.jface.text.source;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -38,8 +35,11 @@ import org.eclipse.swt.widgets.Display;
 import org.eclipse.core.runtime.Assert;
 import org.eclipse.core.runtime.Platform;
 
+import org.eclipse.jface.internal.text.IntervalIndex;
+
 import org.eclipse.jface.text.BadLocationException;
 import org.eclipse.jface.text.IDocument;
+import org.eclipse.jface.text.IDocumentExtension4;
 import org.eclipse.jface.text.IPaintPositionManager;
 import org.eclipse.jface.text.IPainter;
 import org.eclipse.jface.text.IRegion;
@@ -338,6 +338,284 @@ public class AnnotationPainter implements IPainter, PaintListener, IAnnotationMo
 		private Object fPaintingStrategy;
 	}
 
+	/**
+	 * Immutable snapshot of the drawn decorations, bucketed by layer and sorted by offset within
+	 * each layer, so that a paint only visits the decorations intersecting its clipping region.
+	 * <p>
+	 * The snapshot refers to the live positions of the decorations. Document changes keep their
+	 * order but change their extents, hence each layer is indexed by an {@link IntervalIndex} which
+	 * is rebuilt once per document modification, on the display thread, before the snapshot is
+	 * searched.
+	 * </p>
+	 *
+	 * @since 3.7
+	 */
+	private static final class DecorationSnapshot {
+
+		/** Snapshot without decorations. */
+		static final DecorationSnapshot EMPTY= new DecorationSnapshot(new Annotation[0][], new Decoration[0][]);
+
+		/** Orders map entries of decorations by offset. */
+		private static final Comparator OFFSET_ORDER= new Comparator() {
+			public int compare(Object o1, Object o2) {
+				Position p1= ((Decoration) ((Map.Entry) o1).getValue()).fPosition;
+				Position p2= ((Decoration) ((Map.Entry) o2).getValue()).fPosition;
+				return p1.offset < p2.offset ? -1 : (p1.offset == p2.offset ? 0 : 1);
+			}
+		};
+
+		/** The annotations of each layer, sorted by offset. */
+		private final Annotation[][] fAnnotations;
+		/** The decorations of each layer, parallel to the annotations. */
+		private final Decoration[][] fDecorations;
+		/** The index of each layer, only accessed in the display thread. */
+		private IntervalIndex[] fIndexes;
+		/** The document modification stamp the indexes were built for. */
+		private long fStamp= IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+		/** Whether the indexes were built at all. */
+		private boolean fValid;
+
+		private DecorationSnapshot(Annotation[][] annotations, Decoration[][] decorations) {
+			fAnnotations= annotations;
+			fDecorations= decorations;
+		}
+
+		/**
+		 * Creates the snapshot of the given decorations.
+		 *
+		 * @param decorationsMap maps annotations to their decorations
+		 * @return the snapshot
+		 */
+		static DecorationSnapshot create(Map decorationsMap) {
+			if (decorationsMap == null || decorationsMap.isEmpty())
+				return EMPTY;
+
+			int layers= 0;
+			for (Iterator e= decorationsMap.values().iterator(); e.hasNext();)
+				layers= Math.max(layers, ((Decoration) e.next()).fLayer + 1);
+
+			int[] counts= new int[layers];
+			Map.Entry[][] entries= new Map.Entry[layers][];
+			for (Iterator e= decorationsMap.values().iterator(); e.hasNext();)
+				counts[((Decoration) e.next()).fLayer]++;
+			for (int layer= 0; layer < layers; layer++)
+				entries[layer]= new Map.Entry[counts[layer]];
+
+			Arrays.fill(counts, 0);
+			for (Iterator e= decorationsMap.entrySet().iterator(); e.hasNext();) {
+				Map.Entry entry= (Map.Entry) e.next();
+				int layer= ((Decoration) entry.getValue()).fLayer;
+				entries[layer][counts[layer]++]= entry;
+			}
+
+			Annotation[][] annotations= new Annotation[layers][];
+			Decoration[][] decorations= new Decoration[layers][];
+			for (int layer= 0; layer < layers; layer++) {
+				Map.Entry[] bucket= entries[layer];
+				Arrays.sort(bucket, OFFSET_ORDER);
+				annotations[layer]= new Annotation[bucket.length];
+				decorations[layer]= new Decoration[bucket.length];
+				for (int i= 0; i < bucket.length; i++) {
+					annotations[layer][i]= (Annotation) bucket[i].getKey();
+					decorations[layer][i]= (Decoration) bucket[i].getValue();
+				}
+			}
+			return new DecorationSnapshot(annotations, decorations);
+		}
+
+		/**
+		 * Derives the snapshot with the given decorations removed and added. Only the layers of
+		 * these decorations are copied, their decorations keep their order.
+		 *
+		 * @param removed maps annotations to the decorations to remove
+		 * @param added maps annotations to the decorations to add
+		 * @return the derived snapshot
+		 */
+		DecorationSnapshot update(Map removed, Map added) {
+			int layers= fAnnotations.length;
+			for (Iterator e= added.values().iterator(); e.hasNext();)
+				layers= Math.max(layers, ((Decoration) e.next()).fLayer + 1);
+
+			boolean[] affected= new boolean[layers];
+			for (Iterator e= removed.values().iterator(); e.hasNext();)
+				affected[((Decoration) e.next()).fLayer]= true;
+
+			// group and order the added decorations by layer
+			Map.Entry[] additions= (Map.Entry[]) added.entrySet().toArray(new Map.Entry[added.size()]);
+			Arrays.sort(additions, OFFSET_ORDER);
+			int[] addedCounts= new int[layers];
+			for (int i= 0; i < additions.length; i++) {
+				int layer= ((Decoration) additions[i].getValue()).fLayer;
+				addedCounts[layer]++;
+				affected[layer]= true;
+			}
+
+			Annotation[][] annotations= new Annotation[layers][];
+			Decoration[][] decorations= new Decoration[layers][];
+			for (int layer= 0; layer < layers; layer++) {
+				Annotation[] oldAnnotations= layer < fAnnotations.length ? fAnnotations[layer] : new Annotation[0];
+				Decoration[] oldDecorations= layer < fDecorations.length ? fDecorations[layer] : new Decoration[0];
+				if (!affected[layer]) {
+					annotations[layer]= oldAnnotations;
+					decorations[layer]= oldDecorations;
+					continue;
+				}
+
+				Annotation[] newAnnotations= new Annotation[oldAnnotations.length + addedCounts[layer]];
+				Decoration[] newDecorations= new Decoration[newAnnotations.length];
+				int count= 0;
+				int next= nextAddition(additions, layer, 0);
+				for (int i= 0; i < oldAnnotations.length; i++) {
+					if (removed.get(oldAnnotations[i]) == oldDecorations[i])
+						continue;
+					int offset= oldDecorations[i].fPosition.offset;
+					while (next < additions.length && ((Decoration) additions[next].getValue()).fPosition.offset < offset) {
+						newAnnotations[count]= (Annotation) additions[next].getKey();
+						newDecorations[count++]= (Decoration) additions[next].getValue();
+						next= nextAddition(additions, layer, next + 1);
+					}
+					newAnnotations[count]= oldAnnotations[i];
+					newDecorations[count++]= oldDecorations[i];
+				}
+				while (next < additions.length) {
+					newAnnotations[count]= (Annotation) additions[next].getKey();
+					newDecorations[count++]= (Decoration) additions[next].getValue();
+					next= nextAddition(additions, layer, next + 1);
+				}
+
+				if (count < newAnnotations.length) {
+					Annotation[] trimmedAnnotations= new Annotation[count];
+					Decoration[] trimmedDecorations= new Decoration[count];
+					System.arraycopy(newAnnotations, 0, trimmedAnnotations, 0, count);
+					System.arraycopy(newDecorations, 0, trimmedDecorations, 0, count);
+					newAnnotations= trimmedAnnotations;
+					newDecorations= trimmedDecorations;
+				}
+				annotations[layer]= newAnnotations;
+				decorations[layer]= newDecorations;
+			}
+			return new DecorationSnapshot(annotations, decorations);
+		}
+
+		private static int nextAddition(Map.Entry[] additions, int layer, int from) {
+			while (from < additions.length && ((Decoration) additions[from].getValue()).fLayer != layer)
+				from++;
+			return from;
+		}
+
+		int getLayerCount() {
+			return fAnnotations.length;
+		}
+
+		Annotation getAnnotation(int layer, int index) {
+			return fAnnotations[layer][index];
+		}
+
+		Decoration getDecoration(int layer, int index) {
+			return fDecorations[layer][index];
+		}
+
+		/**
+		 * Brings the indexes of the snapshot up to date with the positions of its decorations. Must
+		 * be called in the display thread.
+		 * <p>
+		 * Position updaters keep the order of the decorations, custom updaters may not. The layers
+		 * may be shared with snapshots derived in other threads, so a layer out of order is not
+		 * repaired in place but in a copy, and a new snapshot is returned.
+		 * </p>
+		 *
+		 * @param document the document of the positions
+		 * @return this snapshot, or a new one with repaired layers
+		 */
+		DecorationSnapshot validate(IDocument document) {
+			long stamp= IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP;
+			if (document instanceof IDocumentExtension4)
+				stamp= ((IDocumentExtension4) document).getModificationStamp();
+			if (fValid && stamp == fStamp && stamp != IDocumentExtension4.UNKNOWN_MODIFICATION_STAMP)
+				return this;
+
+			Annotation[][] repairedAnnotations= null;
+			Decoration[][] repairedDecorations= null;
+			IntervalIndex[] indexes= new IntervalIndex[fAnnotations.length];
+			for (int layer= 0; layer < fAnnotations.length; layer++) {
+				Annotation[] annotations= fAnnotations[layer];
+				Decoration[] decorations= fDecorations[layer];
+				int[] starts= new int[decorations.length];
+				int[] ends= new int[decorations.length];
+				boolean sorted= true;
+				for (int i= 0; i < decorations.length; i++) {
+					Position position= decorations[i].fPosition;
+					starts[i]= position.offset;
+					ends[i]= position.offset + position.length;
+					if (i > 0 && starts[i - 1] > starts[i])
+						sorted= false;
+				}
+
+				if (!sorted) {
+					if (repairedAnnotations == null) {
+						repairedAnnotations= (Annotation[][]) fAnnotations.clone();
+						repairedDecorations= (Decoration[][]) fDecorations.clone();
+					}
+					annotations= (Annotation[]) annotations.clone();
+					decorations= (Decoration[]) decorations.clone();
+					sort(annotations, decorations, starts, ends);
+					repairedAnnotations[layer]= annotations;
+					repairedDecorations[layer]= decorations;
+				}
+				indexes[layer]= new IntervalIndex(starts, ends);
+			}
+
+			DecorationSnapshot snapshot= repairedAnnotations == null ? this : new DecorationSnapshot(repairedAnnotations, repairedDecorations);
+			snapshot.fIndexes= indexes;
+			snapshot.fStamp= stamp;
+			snapshot.fValid= true;
+			return snapshot;
+		}
+
+		/**
+		 * Sorts the parallel arrays by start offset. Insertion sort, as only the few decorations
+		 * moved by custom position updaters are out of order.
+		 *
+		 * @param annotations the annotations
+		 * @param decorations the decorations
+		 * @param starts the start offsets
+		 * @param ends the end offsets
+		 */
+		private static void sort(Annotation[] annotations, Decoration[] decorations, int[] starts, int[] ends) {
+			for (int i= 1; i < starts.length; i++) {
+				Annotation annotation= annotations[i];
+				Decoration decoration= decorations[i];
+				int start= starts[i];
+				int end= ends[i];
+				int j= i;
+				while (j > 0 && starts[j - 1] > start) {
+					annotations[j]= annotations[j - 1];
+					decorations[j]= decorations[j - 1];
+					starts[j]= starts[j - 1];
+					ends[j]= ends[j - 1];
+					j--;
+				}
+				annotations[j]= annotation;
+				decorations[j]= decoration;
+				starts[j]= start;
+				ends[j]= end;
+			}
+		}
+
+		/**
+		 * Returns the decorations of the given layer that intersect with or touch the given range.
+		 * The snapshot must be {@link #validate(IDocument) valid}.
+		 *
+		 * @param layer the layer
+		 * @param offset the range offset
+		 * @param length the range length
+		 * @return the indices of the decorations, ascending
+		 */
+		int[] findOverlapping(int layer, int offset, int length) {
+			return fIndexes[layer].findOverlapping(offset, length);
+		}
+	}
+
 
 	/** Indicates whether this painter is active */
 	private boolean fIsActive= false;
@@ -373,6 +651,11 @@ public class AnnotationPainter implements IPainter, PaintListener, IAnnotationMo
 	 * @since 3.0
 	 */
 	private Object fHighlightedDecorationsMapLock= new Object();
+	/**
+	 * Snapshot of the decorations map searched by paints, guarded by the decorations map lock.
+	 * @since 3.7
+	 */
+	private DecorationSnapshot fDecorationSnapshot= DecorationSnapshot.EMPTY;
 	/**
 	 * Maps an annotation type to its registered color.
 	 *
@@ -538,6 +821,7 @@ public class AnnotationPainter implements IPainter, PaintListener, IAnnotationMo
 			// annotation model is null -> clear all
 			synchronized (fDecorationMapLock) {
 				fDecorationsMap.clear();
+				fDecorationSnapshot= DecorationSnapshot.EMPTY;
 			}
 			synchronized (fHighlightedDecorationsMapLock) {
 				fHighlightedDecorationsMap.clear();
@@ -548,143 +832,226 @@ public class AnnotationPainter implements IPainter, PaintListener, IAnnotationMo
 		IRegion clippingRegion= computeClippingRegion(null, true);
 		IDocument document= fSourceViewer.getDocument();
 
+		if (event != null && !event.isWorldChange()) {
+			catchupWithModelDelta(event, clippingRegion, document);
+			return;
+		}
+
 		int highlightAnnotationRangeStart= Integer.MAX_VALUE;
 		int highlightAnnotationRangeEnd= -1;
 
 		int drawRangeStart= Integer.MAX_VALUE;
 		int drawRangeEnd= -1;
 
-		Map decorationsMap;
-		Map highlightedDecorationsMap;
+		if (DEBUG && event == null)
+			System.out.println("AP: INTERNAL CHANGE"); //$NON-NLS-1$
 
-		// Clone decoration maps
+		// Clear the decorations drawn so far
+		Map oldDecorationsMap;
 		synchronized (fDecorationMapLock) {
-			decorationsMap= new HashMap(fDecorationsMap);
+			oldDecorationsMap= new HashMap(fDecorationsMap);
 		}
-		synchronized (fHighlightedDecorationsMapLock) {
-			highlightedDecorationsMap= new HashMap(fHighlightedDecorationsMap);
+		Iterator iter= oldDecorationsMap.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry entry= (Map.Entry)iter.next();
+			Annotation annotation= (Annotation)entry.getKey();
+			Decoration decoration= (Decoration)entry.getValue();
+			drawDecoration(decoration, null, annotation, clippingRegion, document);
 		}
 
-		boolean isWorldChange= false;
+		// Rebuild the decorations from the model
+		Map decorationsMap= new HashMap();
+		Map highlightedDecorationsMap= new HashMap();
 
-		Iterator e;
-		if (event == null || event.isWorldChange()) {
-			isWorldChange= true;
-
-			if (DEBUG && event == null)
-				System.out.println("AP: INTERNAL CHANGE"); //$NON-NLS-1$
+		Iterator e= fModel.getAnnotationIterator();
+		while (e.hasNext()) {
+			Annotation annotation= (Annotation)e.next();
+			Decoration pp= getDecoration(annotation, null);
+			if (pp != null) {
+				if (pp.fPaintingStrategy instanceof IDrawingStrategy) {
+					decorationsMap.put(annotation, pp);
+					drawRangeStart= Math.min(drawRangeStart, pp.fPosition.offset);
+					drawRangeEnd= Math.max(drawRangeEnd, pp.fPosition.offset + pp.fPosition.length);
+				} else if (pp.fPaintingStrategy instanceof ITextStyleStrategy) {
+					highlightedDecorationsMap.put(annotation, pp);
+					highlightAnnotationRangeStart= Math.min(highlightAnnotationRangeStart, pp.fPosition.offset);
+					highlightAnnotationRangeEnd= Math.max(highlightAnnotationRangeEnd, pp.fPosition.offset + pp.fPosition.length);
+				}
 
-			Iterator iter= decorationsMap.entrySet().iterator();
-			while (iter.hasNext()) {
-				Map.Entry entry= (Map.Entry)iter.next();
-				Annotation annotation= (Annotation)entry.getKey();
-				Decoration decoration= (Decoration)entry.getValue();
-				drawDecoration(decoration, null, annotation, clippingRegion, document);
 			}
+		}
 
-			decorationsMap.clear();
+		DecorationSnapshot snapshot= DecorationSnapshot.create(decorationsMap);
+		synchronized (fDecorationMapLock) {
+			if (fDecorationsMap == null)
+				return;
+			fDecorationsMap= decorationsMap;
+			fDecorationSnapshot= snapshot;
+			updateDrawRanges(drawRangeStart, drawRangeEnd, true);
+		}
+
+		synchronized (fHighlightedDecorationsMapLock) {
+			if (fHighlightedDecorationsMap == null)
+				return;
+			fHighlightedDecorationsMap= highlightedDecorationsMap;
+			updateHighlightRanges(highlightAnnotationRangeStart, highlightAnnotationRangeEnd, true);
+		}
+	}
 
-			highlightedDecorationsMap.clear();
+	/**
+	 * Applies the added, changed and removed annotations of the given event to the decoration maps
+	 * in place. Only the ranges of these annotations are damaged, and the decoration snapshot is
+	 * derived from the previous one rather than rebuilt.
+	 *
+	 * @param event the annotation model event, not a world change
+	 * @param clippingRegion the region in which to clear decorations which are no longer drawn
+	 * @param document the document
+	 * @since 3.7
+	 */
+	private void catchupWithModelDelta(AnnotationModelEvent event, IRegion clippingRegion, IDocument document) {
 
-			e= fModel.getAnnotationIterator();
+		int highlightAnnotationRangeStart= Integer.MAX_VALUE;
+		int highlightAnnotationRangeEnd= -1;
 
+		int drawRangeStart= Integer.MAX_VALUE;
+		int drawRangeEnd= -1;
 
-		} else {
+		// Drawn decorations leaving and entering the snapshot
+		Map removedDrawn= new HashMap();
+		Map addedDrawn= new HashMap();
 
-			// Remove annotations
-			Annotation[] removedAnnotations= event.getRemovedAnnotations();
-			for (int i= 0, length= removedAnnotations.length; i < length; i++) {
-				Annotation annotation= removedAnnotations[i];
-				Decoration decoration= (Decoration)highlightedDecorationsMap.remove(annotation);
-				if (decoration != null) {
-					Position position= decoration.fPosition;
-					if (position != null) {
-						highlightAnnotationRangeStart= Math.min(highlightAnnotationRangeStart, position.offset);
-						highlightAnnotationRangeEnd= Math.max(highlightAnnotationRangeEnd, position.offset + position.length);
-					}
+		// Remove annotations
+		Annotation[] removedAnnotations= event.getRemovedAnnotations();
+		for (int i= 0, length= removedAnnotations.length; i < length; i++) {
+			Annotation annotation= removedAnnotations[i];
+			Decoration decoration;
+			synchronized (fHighlightedDecorationsMapLock) {
+				if (fHighlightedDecorationsMap == null)
+					return;
+				decoration= (Decoration)fHighlightedDecorationsMap.remove(annotation);
+			}
+			if (decoration != null) {
+				Position position= decoration.fPosition;
+				if (position != null) {
+					highlightAnnotationRangeStart= Math.min(highlightAnnotationRangeStart, position.offset);
+					highlightAnnotationRangeEnd= Math.max(highlightAnnotationRangeEnd, position.offset + position.length);
 				}
-				decoration= (Decoration)decorationsMap.remove(annotation);
-				if (decoration != null) {
-					drawDecoration(decoration, null, annotation, clippingRegion, document);
-					Position position= decoration.fPosition;
-					if (position != null) {
-						drawRangeStart= Math.min(drawRangeStart, position.offset);
-						drawRangeEnd= Math.max(drawRangeEnd, position.offset + position.length);
-					}
+			}
+			synchronized (fDecorationMapLock) {
+				if (fDecorationsMap == null)
+					return;
+				decoration= (Decoration)fDecorationsMap.remove(annotation);
+			}
+			if (decoration != null) {
+				removedDrawn.put(annotation, decoration);
+				drawDecoration(decoration, null, annotation, clippingRegion, document);
+				Position position= decoration.fPosition;
+				if (position != null) {
+					drawRangeStart= Math.min(drawRangeStart, position.offset);
+					drawRangeEnd= Math.max(drawRangeEnd, position.offset + position.length);
 				}
-
 			}
 
-			// Update existing annotations
-			Annotation[] changedAnnotations= event.getChangedAnnotations();
-			for (int i= 0, length= changedAnnotations.length; i < length; i++) {
-				Annotation annotation= changedAnnotations[i];
+		}
 
-				boolean isHighlighting= false;
+		// Update existing annotations
+		Annotation[] changedAnnotations= event.getChangedAnnotations();
+		for (int i= 0, length= changedAnnotations.length; i < length; i++) {
+			Annotation annotation= changedAnnotations[i];
 
-				Decoration decoration= (Decoration)highlightedDecorationsMap.get(annotation);
+			boolean isHighlighting= false;
 
-				if (decoration != null) {
-					isHighlighting= true;
-					// The call below updates the decoration - no need to create new decoration
-					decoration= getDecoration(annotation, decoration);
-					if (decoration == null)
-						highlightedDecorationsMap.remove(annotation);
-				} else {
-					decoration= getDecoration(annotation, decoration);
-					if (decoration != null && decoration.fPaintingStrategy instanceof ITextStyleStrategy) {
-						highlightedDecorationsMap.put(annotation, decoration);
-						isHighlighting= true;
+			Decoration decoration;
+			synchronized (fHighlightedDecorationsMapLock) {
+				if (fHighlightedDecorationsMap == null)
+					return;
+				decoration= (Decoration)fHighlightedDecorationsMap.get(annotation);
+			}
+
+			if (decoration != null) {
+				isHighlighting= true;
+				// The call below updates the decoration - no need to create new decoration
+				decoration= getDecoration(annotation, decoration);
+				if (decoration == null) {
+					synchronized (fHighlightedDecorationsMapLock) {
+						fHighlightedDecorationsMap.remove(annotation);
 					}
 				}
+			} else {
+				decoration= getDecoration(annotation, decoration);
+				if (decoration != null && decoration.fPaintingStrategy instanceof ITextStyleStrategy) {
+					synchronized (fHighlightedDecorationsMapLock) {
+						fHighlightedDecorationsMap.put(annotation, decoration);
+					}
+					isHighlighting= true;
+				}
+			}
 
-				boolean usesDrawingStrategy= !isHighlighting && decoration != null;
+			boolean usesDrawingStrategy= !isHighlighting && decoration != null;
 
-				Position position= null;
-				if (decoration == null)
-					position= fModel.getPosition(annotation);
-				else
-					position= decoration.fPosition;
+			Position position= null;
+			if (decoration == null)
+				position= fModel.getPosition(annotation);
+			else
+				position= decoration.fPosition;
 
-				if (position != null && !position.isDeleted()) {
-					if (isHighlighting) {
-						highlightAnnotationRangeStart= Math.min(highlightAnnotationRangeStart, position.offset);
-						highlightAnnotationRangeEnd= Math.max(highlightAnnotationRangeEnd, position.offset + position.length);
-					}
-					if (usesDrawingStrategy) {
-						drawRangeStart= Math.min(drawRangeStart, position.offset);
-						drawRangeEnd= Math.max(drawRangeEnd, position.offset + position.length);
-					}
-				} else {
-					highlightedDecorationsMap.remove(annotation);
+			if (position != null && !position.isDeleted()) {
+				if (isHighlighting) {
+					highlightAnnotationRangeStart= Math.min(highlightAnnotationRangeStart, position.offset);
+					highlightAnnotationRangeEnd= Math.max(highlightAnnotationRangeEnd, position.offset + position.length);
 				}
-
 				if (usesDrawingStrategy) {
-					Decoration oldDecoration= (Decoration)decorationsMap.get(annotation);
-					if (oldDecoration != null) {
-						drawDecoration(oldDecoration, null, annotation, clippingRegion, document);
-						if (decoration != null)
-							decorationsMap.put(annotation, decoration);
-						else
-							decorationsMap.remove(annotation);
-					}
+					drawRangeStart= Math.min(drawRangeStart, position.offset);
+					drawRangeEnd= Math.max(drawRangeEnd, position.offset + position.length);
+				}
+			} else {
+				synchronized (fHighlightedDecorationsMapLock) {
+					fHighlightedDecorationsMap.remove(annotation);
 				}
 			}
 
-			e= Arrays.asList(event.getAddedAnnotations()).iterator();
+			if (usesDrawingStrategy) {
+				Decoration oldDecoration;
+				synchronized (fDecorationMapLock) {
+					if (fDecorationsMap == null)
+						return;
+					oldDecoration= (Decoration)fDecorationsMap.get(annotation);
+					if (oldDecoration != null)
+						fDecorationsMap.put(annotation, decoration);
+				}
+				if (oldDecoration != null) {
+					drawDecoration(oldDecoration, null, annotation, clippingRegion, document);
+					if (!removedDrawn.containsKey(annotation))
+						removedDrawn.put(annotation, oldDecoration);
+					addedDrawn.put(annotation, decoration);
+				}
+			}
 		}
 
 		// Add new annotations
-		while (e.hasNext()) {
-			Annotation annotation= (Annotation)e.next();
+		Annotation[] addedAnnotations= event.getAddedAnnotations();
+		for (int i= 0, length= addedAnnotations.length; i < length; i++) {
+			Annotation annotation= addedAnnotations[i];
 			Decoration pp= getDecoration(annotation, null);
 			if (pp != null) {
 				if (pp.fPaintingStrategy instanceof IDrawingStrategy) {
-					decorationsMap.put(annotation, pp);
+					Decoration oldDecoration;
+					synchronized (fDecorationMapLock) {
+						if (fDecorationsMap == null)
+							return;
+						oldDecoration= (Decoration)fDecorationsMap.put(annotation, pp);
+					}
+					if (oldDecoration != null && !removedDrawn.containsKey(annotation))
+						removedDrawn.put(annotation, oldDecoration);
+					addedDrawn.put(annotation, pp);
 					drawRangeStart= Math.min(drawRangeStart, pp.fPosition.offset);
 					drawRangeEnd= Math.max(drawRangeEnd, pp.fPosition.offset + pp.fPosition.length);
 				} else if (pp.fPaintingStrategy instanceof ITextStyleStrategy) {
-					highlightedDecorationsMap.put(annotation, pp);
+					synchronized (fHighlightedDecorationsMapLock) {
+						if (fHighlightedDecorationsMap == null)
+							return;
+						fHighlightedDecorationsMap.put(annotation, pp);
+					}
 					highlightAnnotationRangeStart= Math.min(highlightAnnotationRangeStart, pp.fPosition.offset);
 					highlightAnnotationRangeEnd= Math.max(highlightAnnotationRangeEnd, pp.fPosition.offset + pp.fPosition.length);
 				}
@@ -693,13 +1060,17 @@ public class AnnotationPainter implements IPainter, PaintListener, IAnnotationMo
 		}
 
 		synchronized (fDecorationMapLock) {
-			fDecorationsMap= decorationsMap;
-			updateDrawRanges(drawRangeStart, drawRangeEnd, isWorldChange);
+			if (fDecorationsMap == null)
+				return;
+			if (!removedDrawn.isEmpty() || !addedDrawn.isEmpty())
+				fDecorationSnapshot= fDecorationSnapshot.update(removedDrawn, addedDrawn);
+			updateDrawRanges(drawRangeStart, drawRangeEnd, false);
 		}
 
 		synchronized (fHighlightedDecorationsMapLock) {
-			fHighlightedDecorationsMap= highlightedDecorationsMap;
-			updateHighlightRanges(highlightAnnotationRangeStart, highlightAnnotationRangeEnd, isWorldChange);
+			if (fHighlightedDecorationsMap == null)
+				return;
+			updateHighlightRanges(highlightAnnotationRangeStart, highlightAnnotationRangeEnd, false);
 		}
 	}
 
@@ -1287,6 +1658,7 @@ public class AnnotationPainter implements IPainter, PaintListener, IAnnotationMo
 		fModel= null;
 		synchronized (fDecorationMapLock) {
 			fDecorationsMap= null;
+			fDecorationSnapshot= DecorationSnapshot.EMPTY;
 		}
 		synchronized (fHighlightedDecorationsMapLock) {
 			fHighlightedDecorationsMap= null;
@@ -1366,39 +1738,32 @@ public class AnnotationPainter implements IPainter, PaintListener, IAnnotationMo
 
 		final GC gc= event != null ? event.gc : null;
 
-		// Clone decorations
-		Collection decorations;
+		// The snapshot is immutable, no need to copy it
+		DecorationSnapshot decorations;
 		synchronized (fDecorationMapLock) {
-			decorations= new ArrayList(fDecorationsMap.size());
-			decorations.addAll(fDecorationsMap.entrySet());
+			decorations= fDecorationSnapshot;
 		}
 
-		/*
-		 * Create a new list of annotations to be drawn, since removing from decorations is more
-		 * expensive. One bucket per drawing layer. Use linked lists as addition is cheap here.
-		 */
-		ArrayList toBeDrawn= new ArrayList(10);
-		for (Iterator e = decorations.iterator(); e.hasNext();) {
-			Map.Entry entry= (Map.Entry)e.next();
-
-			Annotation a= (Annotation)entry.getKey();
-			Decoration pp = (Decoration)entry.getValue();
-			// prune any annotation that is not drawable or does not need drawing
-			if (!(a.isMarkedDeleted() || skip(a) || !regionsTouchOrOverlap(pp.fPosition.getOffset(), pp.fPosition.getLength(), vOffset, vLength))) {
-				// ensure sized appropriately
-				for (int i= toBeDrawn.size(); i <= pp.fLayer; i++)
-					toBeDrawn.add(new LinkedList());
-				((List) toBeDrawn.get(pp.fLayer)).add(entry);
+		IDocument document= fSourceViewer.getDocument();
+		DecorationSnapshot validated= decorations.validate(document);
+		if (validated != decorations) {
+			synchronized (fDecorationMapLock) {
+				// keep a snapshot the model thread derived meanwhile, it is repaired on the next paint
+				if (fDecorationSnapshot == decorations)
+					fDecorationSnapshot= validated;
 			}
+			decorations= validated;
 		}
-		IDocument document= fSourceViewer.getDocument();
-		for (Iterator it= toBeDrawn.iterator(); it.hasNext();) {
-			List layer= (List) it.next();
-			for (Iterator e = layer.iterator(); e.hasNext();) {
-				Map.Entry entry= (Map.Entry)e.next();
-				Annotation a= (Annotation)entry.getKey();
-				Decoration pp = (Decoration)entry.getValue();
-				drawDecoration(pp, gc, a, clippingRegion, document);
+
+		// Draw layer by layer, visiting only the decorations that may intersect the clipping region
+		for (int layer= 0, layers= decorations.getLayerCount(); layer < layers; layer++) {
+			int[] indices= decorations.findOverlapping(layer, vOffset, vLength);
+			for (int j= 0; j < indices.length; j++) {
+				Annotation a= decorations.getAnnotation(layer, indices[j]);
+				Decoration pp= decorations.getDecoration(layer, indices[j]);
+				// prune any annotation that is not drawable or does not need drawing
+				if (!(a.isMarkedDeleted() || skip(a) || !regionsTouchOrOverlap(pp.fPosition.getOffset(), pp.fPosition.getLength(), vOffset, vLength)))
+					drawDecoration(pp, gc, a, clippingRegion, document);
 			}
 		}
 	}
@@ -11,6 +11,7 @@
 package org.eclipse.jface.text.source;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -76,6 +77,8 @@ public class OverviewRuler implements IOverviewRuler {
 		 * @see ITextListener#textChanged
 		 */
 		public void textChanged(TextEvent e) {
+			// lines may have moved, the vertical extents of all annotations are outdated
+			invalidateLayout();
 			if (fTextViewer != null && e.getDocumentEvent() == null && e.getViewerRedrawState()) {
 				// handle only changes of visible document
 				redraw();
@@ -86,6 +89,7 @@ public class OverviewRuler implements IOverviewRuler {
 		 * @see IAnnotationModelListener#modelChanged(IAnnotationModel)
 		 */
 		public void modelChanged(IAnnotationModel model) {
+			invalidateLayout();
 			update();
 		}
 
@@ -98,37 +102,16 @@ public class OverviewRuler implements IOverviewRuler {
 				return;
 
 			if (event.isWorldChange()) {
+				invalidateLayout();
 				update();
 				return;
 			}
 
-			Annotation[] annotations= event.getAddedAnnotations();
-			int length= annotations.length;
-			for (int i= 0; i < length; i++) {
-				if (!skip(annotations[i].getType())) {
-					update();
-					return;
-				}
-			}
-
-			annotations= event.getRemovedAnnotations();
-			length= annotations.length;
-			for (int i= 0; i < length; i++) {
-				if (!skip(annotations[i].getType())) {
-					update();
-					return;
-				}
-			}
-
-			annotations= event.getChangedAnnotations();
-			length= annotations.length;
-			for (int i= 0; i < length; i++) {
-				if (!skip(annotations[i].getType())) {
-					update();
-					return;
-				}
-			}
-
+			boolean isRelevant= addDirtyAnnotations(event.getAddedAnnotations());
+			isRelevant |= addDirtyAnnotations(event.getRemovedAnnotations());
+			isRelevant |= addDirtyAnnotations(event.getChangedAnnotations());
+			if (isRelevant)
+				update();
 		}
 	}
 
@@ -203,11 +186,7 @@ public class OverviewRuler implements IOverviewRuler {
 		}
 
 		private boolean isSubtype(Object annotationType) {
-			if (fAnnotationAccess instanceof  IAnnotationAccessExtension) {
-				IAnnotationAccessExtension extension= (IAnnotationAccessExtension) fAnnotationAccess;
-				return extension.isSubtype(annotationType, fType);
-			}
-			return fType.equals(annotationType);
+			return OverviewRuler.this.isSubtype(annotationType, fType);
 		}
 
 		/*
@@ -366,9 +345,37 @@ public class OverviewRuler implements IOverviewRuler {
 	        visibleLines= bottomIndex - topIndex;
 	        invisibleLines= maxLines - visibleLines;
 		}
+
+		/**
+		 * Tells whether lines are mapped to the same vertical positions as with the given infos.
+		 *
+		 * @param infos the other widget infos, may be <code>null</code>
+		 * @return <code>true</code> if {@link OverviewRuler#computeY(int, WidgetInfos)} yields
+		 *         the same results for both
+		 */
+		boolean hasSameLayout(WidgetInfos infos) {
+			return infos != null && maxLines == infos.maxLines && thumbHeight == infos.thumbHeight
+					&& visibleLines == infos.visibleLines && writable == infos.writable
+					&& bounds.equals(infos.bounds);
+		}
 	}
 
 	private static final boolean DEBUG_DRAW= false;
+	/**
+	 * Extent of annotations which are not drawn.
+	 * @since 3.7
+	 */
+	private static final int[] NO_EXTENT= new int[0];
+	/**
+	 * Number of changed annotations above which the whole buffer is repainted.
+	 * @since 3.7
+	 */
+	private static final int MAX_DIRTY_ANNOTATIONS= 256;
+	/**
+	 * Number of disjoint dirty bands above which the whole buffer is repainted.
+	 * @since 3.7
+	 */
+	private static final int MAX_DIRTY_BANDS= 32;
 	private static final boolean DEBUG_COMPUTE_Y= false;
 	private static final boolean DEBUG_TO_DOCUMENT_LINE_NUMBER= false;
 	
@@ -455,6 +462,44 @@ public class OverviewRuler implements IOverviewRuler {
 	 * @since 3.0
 	 */
 	private List fCachedAnnotations= new ArrayList();
+	/**
+	 * The cached annotations bucketed by the annotation type they are drawn as, two buckets per
+	 * entry of {@link #fAnnotationsSortedByLayer}: persistent annotations first, then temporary ones.
+	 * @since 3.7
+	 */
+	private List[] fAnnotationBuckets= new List[0];
+	/**
+	 * Maps annotation types to the indices in {@link #fAnnotationsSortedByLayer} of the types they
+	 * are drawn as.
+	 * @since 3.7
+	 */
+	private Map fBucketIndices= new HashMap();
+	/**
+	 * Maps annotations to their vertical extent in the buffer, <code>{y, height}</code>, or to
+	 * {@link #NO_EXTENT} if they are not drawn. Valid for {@link #fLayoutInfos}.
+	 * @since 3.7
+	 */
+	private Map fAnnotationExtents= new HashMap();
+	/**
+	 * The widget infos the buffer was painted with.
+	 * @since 3.7
+	 */
+	private WidgetInfos fLayoutInfos;
+	/**
+	 * Lock for the layout state changed by listeners.
+	 * @since 3.7
+	 */
+	private Object fLayoutLock= new Object();
+	/**
+	 * Tells whether the buffer and the cached extents are valid, guarded by {@link #fLayoutLock}.
+	 * @since 3.7
+	 */
+	private boolean fIsLayoutValid= false;
+	/**
+	 * Annotations changed since the buffer was painted, guarded by {@link #fLayoutLock}.
+	 * @since 3.7
+	 */
+	private Set fDirtyAnnotations= new HashSet();
 
 	/**
 	 * Redraw runnable lock
@@ -549,6 +594,7 @@ public class OverviewRuler implements IOverviewRuler {
 			if (fModel != null)
 				fModel.addAnnotationModelListener(fInternalListener);
 
+			invalidateLayout();
 			update();
 		}
 	}
@@ -635,6 +681,9 @@ public class OverviewRuler implements IOverviewRuler {
 		fAnnotationTypes2Colors.clear();
 		fAnnotationsSortedByLayer.clear();
 		fLayersSortedByLayer.clear();
+		fBucketIndices.clear();
+		fAnnotationExtents.clear();
+		fLayoutInfos= null;
 	}
 
 	/**
@@ -656,17 +705,36 @@ public class OverviewRuler implements IOverviewRuler {
 				fBuffer= null;
 			}
 		}
-		if (fBuffer == null)
+		boolean isNewBuffer= fBuffer == null;
+		if (isNewBuffer)
 			fBuffer= new Image(fCanvas.getDisplay(), size.x, size.y);
 
 		GC gc= new GC(fBuffer);
 		try {
-			gc.setBackground(fCanvas.getBackground());
-			gc.fillRectangle(0, 0, size.x, size.y);
-
 			cacheAnnotations();
 
-			doPaint(gc);
+			WidgetInfos infos= new WidgetInfos(fTextViewer.getTextWidget(), fCanvas);
+			int[] bands= computeDirtyBands(infos, isNewBuffer);
+
+			gc.setBackground(fCanvas.getBackground());
+			if (bands == null) {
+				gc.fillRectangle(0, 0, size.x, size.y);
+				doPaint(gc, infos, null);
+			} else if (bands.length > 0) {
+				org.eclipse.swt.graphics.Region clipping= new org.eclipse.swt.graphics.Region(fCanvas.getDisplay());
+				try {
+					for (int i= 0; i < bands.length; i+= 2) {
+						int top= bands[i];
+						int height= bands[i + 1] - top;
+						gc.fillRectangle(0, top, size.x, height);
+						clipping.add(0, top, size.x, height);
+					}
+					gc.setClipping(clipping);
+					doPaint(gc, infos, bands);
+				} finally {
+					clipping.dispose();
+				}
+			}
 
 		} finally {
 			gc.dispose();
@@ -677,6 +745,17 @@ public class OverviewRuler implements IOverviewRuler {
 
 	private void cacheAnnotations() {
 		fCachedAnnotations.clear();
+
+		int buckets= 2 * fAnnotationsSortedByLayer.size();
+		if (fAnnotationBuckets.length != buckets) {
+			fAnnotationBuckets= new List[buckets];
+			for (int i= 0; i < buckets; i++)
+				fAnnotationBuckets[i]= new ArrayList();
+		} else {
+			for (int i= 0; i < buckets; i++)
+				fAnnotationBuckets[i].clear();
+		}
+
 		if (fModel != null) {
 			Iterator iter= fModel.getAnnotationIterator();
 			while (iter.hasNext()) {
@@ -689,19 +768,230 @@ public class OverviewRuler implements IOverviewRuler {
 					continue;
 
 				fCachedAnnotations.add(annotation);
+
+				int[] indices= getBucketIndices(annotation.getType());
+				int style= annotation.isPersistent() ? 0 : 1;
+				for (int i= 0; i < indices.length; i++)
+					fAnnotationBuckets[2 * indices[i] + style].add(annotation);
 			}
 		}
 	}
 
 	/**
-	 * Draws this overview ruler.
+	 * Returns the indices in {@link #fAnnotationsSortedByLayer} of the types annotations of the
+	 * given type are drawn as: the type itself and, unless it is configured itself, its super types.
 	 *
-	 * @param gc the GC to draw into
+	 * @param annotationType the annotation type
+	 * @return the indices
+	 * @since 3.7
+	 */
+	private int[] getBucketIndices(Object annotationType) {
+		int[] indices= (int[]) fBucketIndices.get(annotationType);
+		if (indices != null)
+			return indices;
+
+		boolean isConfigured= fConfiguredAnnotationTypes.contains(annotationType);
+		int[] matches= new int[fAnnotationsSortedByLayer.size()];
+		int count= 0;
+		for (int i= 0; i < matches.length; i++) {
+			Object type= fAnnotationsSortedByLayer.get(i);
+			if (type.equals(annotationType) || !isConfigured && isSubtype(annotationType, type))
+				matches[count++]= i;
+		}
+		indices= new int[count];
+		System.arraycopy(matches, 0, indices, 0, count);
+		fBucketIndices.put(annotationType, indices);
+		return indices;
+	}
+
+	/**
+	 * Tells whether the given annotation type is a sub type of the given type.
+	 *
+	 * @param annotationType the annotation type
+	 * @param type the potential super type
+	 * @return <code>true</code> if <code>annotationType</code> is a sub type of <code>type</code>
+	 * @since 3.7
+	 */
+	private boolean isSubtype(Object annotationType, Object type) {
+		if (fAnnotationAccess instanceof  IAnnotationAccessExtension) {
+			IAnnotationAccessExtension extension= (IAnnotationAccessExtension) fAnnotationAccess;
+			return extension.isSubtype(annotationType, type);
+		}
+		return type.equals(annotationType);
+	}
+
+	/**
+	 * Forces the next paint to recompute all annotation extents and to repaint the whole buffer.
+	 *
+	 * @since 3.7
+	 */
+	private void invalidateLayout() {
+		synchronized (fLayoutLock) {
+			fIsLayoutValid= false;
+			fDirtyAnnotations.clear();
+		}
+	}
+
+	/**
+	 * Remembers the given annotations to be repainted with the next paint.
+	 *
+	 * @param annotations the changed annotations
+	 * @return <code>true</code> if any of the annotations is shown in this ruler
+	 * @since 3.7
+	 */
+	private boolean addDirtyAnnotations(Annotation[] annotations) {
+		boolean isRelevant= false;
+		synchronized (fLayoutLock) {
+			for (int i= 0; i < annotations.length; i++) {
+				if (!skip(annotations[i].getType())) {
+					if (fIsLayoutValid)
+						fDirtyAnnotations.add(annotations[i]);
+					isRelevant= true;
+				}
+			}
+		}
+		return isRelevant;
+	}
+
+	/**
+	 * Computes the vertical bands of the buffer which have to be repainted: the old and the new
+	 * extents of the annotations changed since the last paint, sorted and merged where they
+	 * overlap or touch. If many annotations changed or the bands are scattered, the whole buffer is
+	 * repainted instead.
+	 *
+	 * @param infos the current widget infos
+	 * @param isNewBuffer <code>true</code> if the buffer has not been painted yet
+	 * @return the disjoint bands as ascending pairs of top (inclusive) and bottom (exclusive)
+	 *         coordinates, or <code>null</code> if the whole buffer has to be repainted
+	 * @since 3.7
+	 */
+	private int[] computeDirtyBands(WidgetInfos infos, boolean isNewBuffer) {
+		Set dirty;
+		synchronized (fLayoutLock) {
+			boolean isValid= fIsLayoutValid && !isNewBuffer && infos.hasSameLayout(fLayoutInfos) && fDirtyAnnotations.size() <= MAX_DIRTY_ANNOTATIONS;
+			fIsLayoutValid= true;
+			if (!isValid) {
+				fDirtyAnnotations.clear();
+				dirty= null;
+			} else {
+				dirty= fDirtyAnnotations;
+				fDirtyAnnotations= new HashSet();
+			}
+		}
+
+		if (dirty == null) {
+			fAnnotationExtents.clear();
+			fLayoutInfos= infos;
+			return null;
+		}
+
+		int[] bands= new int[4 * dirty.size()];
+		int count= 0;
+		for (Iterator e= dirty.iterator(); e.hasNext();) {
+			Annotation annotation= (Annotation) e.next();
+			int[] extent= (int[]) fAnnotationExtents.remove(annotation);
+			if (extent != null && extent != NO_EXTENT) {
+				bands[count++]= Math.max(0, extent[0] - 1);
+				bands[count++]= extent[0] + extent[1] + 1;
+			}
+			extent= computeExtent(annotation, infos);
+			if (extent != NO_EXTENT) {
+				// removed annotations do not get an entry
+				fAnnotationExtents.put(annotation, extent);
+				bands[count++]= Math.max(0, extent[0] - 1);
+				bands[count++]= extent[0] + extent[1] + 1;
+			}
+		}
+		int[] result= mergeBands(bands, count);
+		// the extents are up to date, scattered bands are just cheaper to repaint as a whole
+		return result.length > 2 * MAX_DIRTY_BANDS ? null : result;
+	}
+
+	/**
+	 * Sorts the given bands by their top and merges the ones which overlap or touch.
+	 *
+	 * @param bands the bands as pairs of top (inclusive) and bottom (exclusive) coordinates
+	 * @param count the number of coordinates in <code>bands</code>
+	 * @return the disjoint bands, ascending
+	 * @since 3.7
 	 */
-	private void doPaint(GC gc) {
+	private static int[] mergeBands(int[] bands, int count) {
+		int n= count / 2;
+		long[] sorted= new long[n];
+		for (int i= 0; i < n; i++)
+			sorted[i]= ((long) bands[2 * i] << 32) | (bands[2 * i + 1] & 0xFFFFFFFFL);
+		Arrays.sort(sorted);
+
+		int[] merged= new int[count];
+		int length= 0;
+		for (int i= 0; i < n; i++) {
+			int top= (int) (sorted[i] >> 32);
+			int bottom= (int) sorted[i];
+			if (length > 0 && top <= merged[length - 1]) {
+				merged[length - 1]= Math.max(merged[length - 1], bottom);
+			} else {
+				merged[length++]= top;
+				merged[length++]= bottom;
+			}
+		}
+		int[] result= new int[length];
+		System.arraycopy(merged, 0, result, 0, length);
+		return result;
+	}
 
-		Rectangle r= new Rectangle(0, 0, 0, 0);
-		int yy, hh= ANNOTATION_HEIGHT;
+	/**
+	 * Tells whether the vertical range of an annotation, including the pixel its stroke may be
+	 * moved up by, intersects one of the given bands.
+	 *
+	 * @param bands the disjoint bands, ascending
+	 * @param yy the top of the annotation
+	 * @param hh the height of the annotation
+	 * @return <code>true</code> if the annotation has to be drawn
+	 * @since 3.7
+	 */
+	private static boolean intersectsBand(int[] bands, int yy, int hh) {
+		// find the first band with a bottom below the top of the annotation
+		int low= 0;
+		int high= bands.length / 2;
+		while (low < high) {
+			int mid= (low + high) >>> 1;
+			if (bands[2 * mid + 1] <= yy - 1)
+				low= mid + 1;
+			else
+				high= mid;
+		}
+		return low < bands.length / 2 && bands[2 * low] - 1 <= yy + hh;
+	}
+
+	/**
+	 * Returns the vertical extent of the given annotation in the buffer.
+	 *
+	 * @param annotation the annotation
+	 * @param infos the widget infos
+	 * @return the extent as <code>{y, height}</code>, or <code>null</code> if the annotation is not drawn
+	 * @since 3.7
+	 */
+	private int[] getExtent(Annotation annotation, WidgetInfos infos) {
+		int[] extent= (int[]) fAnnotationExtents.get(annotation);
+		if (extent == null) {
+			extent= computeExtent(annotation, infos);
+			fAnnotationExtents.put(annotation, extent);
+		}
+		return extent != NO_EXTENT ? extent : null;
+	}
+
+	/**
+	 * Computes the vertical extent of the given annotation in the buffer.
+	 *
+	 * @param annotation the annotation
+	 * @param infos the widget infos
+	 * @return the extent as <code>{y, height}</code>, or {@link #NO_EXTENT} if the annotation is not drawn
+	 * @since 3.7
+	 */
+	private int[] computeExtent(Annotation annotation, WidgetInfos infos) {
+		Position p= fModel.getPosition(annotation);
+		if (p == null)
+			return NO_EXTENT;
 
 		IDocument document= fTextViewer.getDocument();
 		StyledText textWidget= fTextViewer.getTextWidget();
@@ -712,104 +1002,116 @@ public class OverviewRuler implements IOverviewRuler {
 		else
 			visible= fTextViewer.getVisibleRegion(); // legacy support
 
-		WidgetInfos infos= null;
-		
-		for (Iterator iterator= fAnnotationsSortedByLayer.iterator(); iterator.hasNext();) {
-			Object annotationType= iterator.next();
+		if (visible != null && !p.overlapsWith(visible.getOffset(), visible.getLength()))
+			return NO_EXTENT;
+
+		int annotationOffset= p.getOffset();
+		int annotationLength= p.getLength();
+		IRegion widgetRegion= null;
+		if (visible != null) {
+			annotationOffset= Math.max(p.getOffset(), visible.getOffset());
+			int annotationEnd= Math.min(p.getOffset() + p.getLength(), visible.getOffset() + visible.getLength());
+			annotationLength= annotationEnd - annotationOffset;
+		} else {
+			widgetRegion= extension.modelRange2WidgetRange(new Region(annotationOffset, annotationLength));
+			if (widgetRegion == null)
+				return NO_EXTENT;
+		}
+
+		try {
+			int startOffset= visible != null ? annotationOffset - visible.getOffset() : widgetRegion.getOffset();
+			int startLine= textWidget.getLineAtOffset(startOffset);
+
+			int yy= computeY(startLine, infos);
+			int hh= ANNOTATION_HEIGHT;
+
+			if (ANNOTATION_HEIGHT_SCALABLE) {
+				int numbersOfLines= document.getNumberOfLines(annotationOffset, annotationLength);
+				// don't count empty trailing lines
+				IRegion lastLine= document.getLineInformationOfOffset(annotationOffset + annotationLength);
+				if (lastLine.getOffset() == annotationOffset + annotationLength) {
+					numbersOfLines -= 2;
+					int yy2= computeY(startLine + numbersOfLines, infos);
+					hh= Math.max(yy2 - yy, ANNOTATION_HEIGHT);
+				}
+			}
+			return new int[] { yy, hh };
+		} catch (BadLocationException x) {
+			return NO_EXTENT;
+		}
+	}
+
+	/**
+	 * Draws the annotations of this overview ruler which intersect the given vertical bands.
+	 *
+	 * @param gc the GC to draw into
+	 * @param infos the widget infos
+	 * @param bands the disjoint bands as computed by {@link #computeDirtyBands(WidgetInfos, boolean)},
+	 *            or <code>null</code> to draw all annotations
+	 */
+	private void doPaint(GC gc, WidgetInfos infos, int[] bands) {
+
+		Rectangle r= new Rectangle(INSET, 0, infos.bounds.width - (2 * INSET), 0);
+
+		for (int i= 0, size= fAnnotationsSortedByLayer.size(); i < size; i++) {
+			Object annotationType= fAnnotationsSortedByLayer.get(i);
 
 			if (skip(annotationType))
 				continue;
 
-			int[] style= new int[] { FilterIterator.PERSISTENT, FilterIterator.TEMPORARY };
-			for (int t=0; t < style.length; t++) {
+			for (int t= 0; t < 2; t++) {
+				boolean isTemporary= t == 1;
 				boolean areColorsComputed= false;
 				Color fill= null;
 				Color stroke= null;
 
-				Iterator e= new FilterIterator(annotationType, style[t], fCachedAnnotations.iterator());
-				while (e.hasNext()) {
-					Annotation a= (Annotation) e.next();
-					Position p= fModel.getPosition(a);
-
-					if (p == null)
+				List bucket= fAnnotationBuckets[2 * i + t];
+				for (int j= 0, length= bucket.size(); j < length; j++) {
+					Annotation a= (Annotation) bucket.get(j);
+					int[] extent= getExtent(a, infos);
+					if (extent == null)
 						continue;
-					if (visible != null && !p.overlapsWith(visible.getOffset(), visible.getLength()))
+
+					int yy= extent[0];
+					int hh= extent[1];
+					// the stroke covers one more pixel and may be moved up by one
+					if (bands != null && !intersectsBand(bands, yy, hh))
 						continue;
 
-					int annotationOffset= p.getOffset();
-					int annotationLength= p.getLength();
-					IRegion widgetRegion= null;
-					if (visible != null) {
-						annotationOffset= Math.max(p.getOffset(), visible.getOffset());
-						int annotationEnd= Math.min(p.getOffset() + p.getLength(), visible.getOffset() + visible.getLength());
-						annotationLength= annotationEnd - annotationOffset;
-					} else {
-						widgetRegion= extension.modelRange2WidgetRange(new Region(annotationOffset, annotationLength));
-						if (widgetRegion == null)
-							continue;
+					fAnnotationHeight= hh;
+
+					if (!areColorsComputed) {
+						fill= getFillColor(annotationType, isTemporary);
+						stroke= getStrokeColor(annotationType, isTemporary);
+						areColorsComputed= true;
 					}
-					
-					if (infos == null) {
-						infos= new WidgetInfos(textWidget, fCanvas);
-						r.x= INSET;
-						r.width= infos.bounds.width - (2 * INSET);
+
+					if (fill != null) {
+						gc.setBackground(fill);
+						gc.fillRectangle(INSET, yy, infos.bounds.width-(2*INSET), hh);
 					}
 
-					try {
-						int startOffset= visible != null ? annotationOffset - visible.getOffset() : widgetRegion.getOffset();
-						int startLine= textWidget.getLineAtOffset(startOffset);
-						
-						yy= computeY(startLine, infos);
-						
-						if (ANNOTATION_HEIGHT_SCALABLE) {
-							int numbersOfLines= document.getNumberOfLines(annotationOffset, annotationLength);
-							// don't count empty trailing lines
-							IRegion lastLine= document.getLineInformationOfOffset(annotationOffset + annotationLength);
-							if (lastLine.getOffset() == annotationOffset + annotationLength) {
-								numbersOfLines -= 2;
-								int yy2= computeY(startLine + numbersOfLines, infos);
-								hh= Math.max(yy2 - yy, ANNOTATION_HEIGHT);
-							} else
-								hh= ANNOTATION_HEIGHT;
-						}
-						fAnnotationHeight= hh;
-						
-						if (!areColorsComputed) {
-							fill= getFillColor(annotationType, style[t] == FilterIterator.TEMPORARY);
-							stroke= getStrokeColor(annotationType, style[t] == FilterIterator.TEMPORARY);
-							areColorsComputed= true;
-						}
-
-						if (fill != null) {
-							gc.setBackground(fill);
-							gc.fillRectangle(INSET, yy, infos.bounds.width-(2*INSET), hh);
-						}
-
-						if (stroke != null) {
-							gc.setForeground(stroke);
-							r.y= yy;
-							if (yy + hh == infos.bounds.height)
-								r.y--;
-							r.height= hh;
-							gc.setLineWidth(0); // NOTE: 0 means width is 1 but with optimized performance
-							gc.drawRectangle(r);
-						}
-					} catch (BadLocationException x) {
+					if (stroke != null) {
+						gc.setForeground(stroke);
+						r.y= yy;
+						if (yy + hh == infos.bounds.height)
+							r.y--;
+						r.height= hh;
+						gc.setLineWidth(0); // NOTE: 0 means width is 1 but with optimized performance
+						gc.drawRectangle(r);
 					}
 				}
 			}
 		}
-		
+
 		if (DEBUG_DRAW) {
 			// draw debugging guides (boundaries):
-			if (infos == null)
-				infos= new WidgetInfos(textWidget, fCanvas);
 			gc.setForeground(gc.getDevice().getSystemColor(SWT.COLOR_DARK_MAGENTA));
-			yy= infos.thumbHeight / 2;
+			int yy= infos.thumbHeight / 2;
 			gc.drawLine(0, yy, infos.bounds.x/2, yy);
 			yy= infos.bounds.height - infos.thumbHeight / 2;
 			gc.drawLine(0, yy, infos.bounds.x/2, yy);
-			
+
 			gc.setForeground(gc.getDevice().getSystemColor(SWT.COLOR_BLUE));
 			yy= 0;
 			gc.drawLine(0, yy, infos.bounds.x/2, yy);
@@ -1121,6 +1423,8 @@ public class OverviewRuler implements IOverviewRuler {
 	public void addAnnotationType(Object annotationType) {
 		fConfiguredAnnotationTypes.add(annotationType);
 		fAllowedAnnotationTypes.clear();
+		fBucketIndices.clear();
+		invalidateLayout();
 	}
 
 	/*
@@ -1129,6 +1433,8 @@ public class OverviewRuler implements IOverviewRuler {
 	public void removeAnnotationType(Object annotationType) {
 		fConfiguredAnnotationTypes.remove(annotationType);
 		fAllowedAnnotationTypes.clear();
+		fBucketIndices.clear();
+		invalidateLayout();
 	}
 
 	/*
@@ -1150,6 +1456,8 @@ public class OverviewRuler implements IOverviewRuler {
 			fLayersSortedByLayer.add(i, layerObj);
 			fAnnotationsSortedByLayer.add(i, annotationType);
 		}
+		fBucketIndices.clear();
+		invalidateLayout();
 	}
 
 	/*
@@ -1160,6 +1468,7 @@ public class OverviewRuler implements IOverviewRuler {
 			fAnnotationTypes2Colors.put(annotationType, color);
 		else
 			fAnnotationTypes2Colors.remove(annotationType);
+		invalidateLayout();
 	}
 
 	/**
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2008 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jface.text.source.projection;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.jface.internal.text.IntervalIndex;
+
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.source.Annotation;
+
+
+/**
+ * Immutable interval index over the positions of a projection annotation model, see
+ * {@link IntervalIndex}.
+ * <p>
+ * Positions are captured when the index is built. The index is therefore only valid until the
+ * next change of the annotation model or of its document, see
+ * {@link ProjectionAnnotationModel#getOverlappingAnnotations(int, int)}.
+ * </p>
+ *
+ * @since 3.7
+ */
+final class ProjectionAnnotationIndex {
+
+	private static final Comparator OFFSET_ORDER= new Comparator() {
+		public int compare(Object o1, Object o2) {
+			return ((Entry) o1).fStart - ((Entry) o2).fStart;
+		}
+	};
+
+	private static final class Entry {
+		final Annotation fAnnotation;
+		final int fStart;
+		final int fEnd;
+
+		Entry(Annotation annotation, Position position) {
+			fAnnotation= annotation;
+			fStart= position.getOffset();
+			fEnd= position.getOffset() + position.getLength();
+		}
+	}
+
+	private final Annotation[] fAnnotations;
+	private final IntervalIndex fIndex;
+
+	/**
+	 * Builds the index of all annotations of the given model that have a position.
+	 *
+	 * @param model the annotation model
+	 */
+	ProjectionAnnotationIndex(ProjectionAnnotationModel model) {
+		List entries= new ArrayList();
+		Iterator e= model.getAnnotationIterator();
+		while (e.hasNext()) {
+			Annotation annotation= (Annotation) e.next();
+			Position position= model.getPosition(annotation);
+			if (position != null)
+				entries.add(new Entry(annotation, position));
+		}
+
+		Object[] sorted= entries.toArray();
+		Arrays.sort(sorted, OFFSET_ORDER);
+
+		int n= sorted.length;
+		fAnnotations= new Annotation[n];
+		int[] starts= new int[n];
+		int[] ends= new int[n];
+		for (int i= 0; i < n; i++) {
+			Entry entry= (Entry) sorted[i];
+			fAnnotations[i]= entry.fAnnotation;
+			starts[i]= entry.fStart;
+			ends[i]= entry.fEnd;
+		}
+		fIndex= new IntervalIndex(starts, ends);
+	}
+
+	/**
+	 * Returns the annotations whose positions intersect with or touch the closed range
+	 * <code>[offset, offset + length]</code>, that is all annotations with a position starting at
+	 * or before <code>offset + length</code> and ending at or after <code>offset</code>.
+	 *
+	 * @param offset the range offset
+	 * @param length the range length
+	 * @return the matching annotations sorted by position offset
+	 */
+	List findOverlapping(int offset, int length) {
+		int[] indices= fIndex.findOverlapping(offset, length);
+		List result= new ArrayList(indices.length);
+		for (int i= 0; i < indices.length; i++)
+			result.add(fAnnotations[indices[i]]);
+		return result;
+	}
+}
@@ -10,13 +10,18 @@
  *******************************************************************************/
 package org.eclipse.jface.text.source.projection;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.eclipse.jface.text.BadLocationException;
+import org.eclipse.jface.text.DocumentEvent;
+import org.eclipse.jface.text.IDocumentListener;
 import org.eclipse.jface.text.Position;
 import org.eclipse.jface.text.source.Annotation;
 import org.eclipse.jface.text.source.AnnotationModel;
+import org.eclipse.jface.text.source.AnnotationModelEvent;
 
 
 /**
@@ -31,6 +36,24 @@ import org.eclipse.jface.text.source.AnnotationModel;
  */
 public class ProjectionAnnotationModel extends AnnotationModel {
 
+	/**
+	 * Drops the position index whenever the document changes, as positions are updated in place.
+	 */
+	private final IDocumentListener fIndexInvalidator= new IDocumentListener() {
+		public void documentAboutToBeChanged(DocumentEvent event) {
+			invalidateIndex();
+		}
+
+		public void documentChanged(DocumentEvent event) {
+			invalidateIndex();
+		}
+	};
+
+	/** The position index, <code>null</code> until requested after a change. */
+	private volatile ProjectionAnnotationIndex fIndex;
+	/** Incremented with each change, to detect an index built concurrently with a change. */
+	private int fIndexStamp;
+
 
 	/**
 	 * Creates a new, empty projection annotation model.
@@ -38,6 +61,164 @@ public class ProjectionAnnotationModel extends AnnotationModel {
 	public ProjectionAnnotationModel() {
 	}
 
+	/**
+	 * Returns the annotations whose positions overlap with or touch the given range, that is all
+	 * annotations with a position starting at or before <code>offset + length</code> and ending at
+	 * or after <code>offset</code>. Runs in <code>O(log n + k)</code> for <code>k</code> matching
+	 * annotations once the index of the current model state is built.
+	 * <p>
+	 * The result includes annotations which merely touch the range boundaries as well as deleted
+	 * positions not yet cleaned up, clients apply their exact criterion on the returned candidates.
+	 * </p>
+	 *
+	 * @param offset the range offset
+	 * @param length the range length
+	 * @return an iterator over the matching annotations, sorted by position offset
+	 */
+	public Iterator getOverlappingAnnotations(int offset, int length) {
+		return getIndex().findOverlapping(offset, length).iterator();
+	}
+
+	/**
+	 * Returns the annotations whose positions enclose the given range, that is all annotations with
+	 * a position starting at or before <code>offset</code> and ending at or after
+	 * <code>offset + length</code>.
+	 *
+	 * @param offset the range offset
+	 * @param length the range length
+	 * @return an iterator over the matching annotations, sorted by position offset
+	 */
+	public Iterator getEnclosingAnnotations(int offset, int length) {
+		List candidates= getIndex().findOverlapping(offset, length);
+		List result= new ArrayList(candidates.size());
+		for (int i= 0, size= candidates.size(); i < size; i++) {
+			Annotation annotation= (Annotation) candidates.get(i);
+			Position position= getPosition(annotation);
+			if (position != null && position.getOffset() <= offset && offset + length <= position.getOffset() + position.getLength())
+				result.add(annotation);
+		}
+		return result.iterator();
+	}
+
+	/**
+	 * Returns the annotations whose positions are enclosed by the given range, that is all
+	 * annotations with a position starting at or after <code>offset</code> and ending at or before
+	 * <code>offset + length</code>.
+	 *
+	 * @param offset the range offset
+	 * @param length the range length
+	 * @return an iterator over the matching annotations, sorted by position offset
+	 */
+	public Iterator getEnclosedAnnotations(int offset, int length) {
+		List candidates= getIndex().findOverlapping(offset, length);
+		List result= new ArrayList(candidates.size());
+		for (int i= 0, size= candidates.size(); i < size; i++) {
+			Annotation annotation= (Annotation) candidates.get(i);
+			Position position= getPosition(annotation);
+			if (position != null && offset <= position.getOffset() && position.getOffset() + position.getLength() <= offset + length)
+				result.add(annotation);
+		}
+		return result.iterator();
+	}
+
+	/**
+	 * Returns the index of the current positions, building it if the model or its document changed
+	 * since it was last built. The index is built outside of the model lock, so that cleaning up
+	 * deleted positions may notify listeners, and is only kept if no change happened meanwhile.
+	 *
+	 * @return the position index
+	 */
+	private ProjectionAnnotationIndex getIndex() {
+		ProjectionAnnotationIndex index= fIndex;
+		if (index != null)
+			return index;
+
+		int stamp;
+		synchronized (getLockObject()) {
+			stamp= fIndexStamp;
+		}
+		index= new ProjectionAnnotationIndex(this);
+		synchronized (getLockObject()) {
+			if (stamp == fIndexStamp)
+				fIndex= index;
+		}
+		return index;
+	}
+
+	private void invalidateIndex() {
+		synchronized (getLockObject()) {
+			fIndexStamp++;
+			fIndex= null;
+		}
+	}
+
+	/*
+	 * @see org.eclipse.jface.text.source.AnnotationModel#connected()
+	 */
+	protected void connected() {
+		super.connected();
+		invalidateIndex();
+		fDocument.addDocumentListener(fIndexInvalidator);
+	}
+
+	/*
+	 * @see org.eclipse.jface.text.source.AnnotationModel#disconnected()
+	 */
+	protected void disconnected() {
+		fDocument.removeDocumentListener(fIndexInvalidator);
+		invalidateIndex();
+		super.disconnected();
+	}
+
+	/*
+	 * @see org.eclipse.jface.text.source.AnnotationModel#addAnnotation(org.eclipse.jface.text.source.Annotation, org.eclipse.jface.text.Position, boolean)
+	 */
+	protected void addAnnotation(Annotation annotation, Position position, boolean fireModelChanged) throws BadLocationException {
+		invalidateIndex();
+		super.addAnnotation(annotation, position, fireModelChanged);
+	}
+
+	/*
+	 * @see org.eclipse.jface.text.source.AnnotationModel#removeAnnotation(org.eclipse.jface.text.source.Annotation, boolean)
+	 */
+	protected void removeAnnotation(Annotation annotation, boolean fireModelChanged) {
+		invalidateIndex();
+		super.removeAnnotation(annotation, fireModelChanged);
+	}
+
+	/*
+	 * @see org.eclipse.jface.text.source.AnnotationModel#removeAllAnnotations(boolean)
+	 */
+	protected void removeAllAnnotations(boolean fireModelChanged) {
+		invalidateIndex();
+		super.removeAllAnnotations(fireModelChanged);
+	}
+
+	/*
+	 * @see org.eclipse.jface.text.source.AnnotationModel#replaceAnnotations(org.eclipse.jface.text.source.Annotation[], java.util.Map, boolean)
+	 */
+	protected void replaceAnnotations(Annotation[] annotationsToRemove, Map annotationsToAdd, boolean fireModelChanged) throws BadLocationException {
+		invalidateIndex();
+		super.replaceAnnotations(annotationsToRemove, annotationsToAdd, fireModelChanged);
+	}
+
+	/*
+	 * @see org.eclipse.jface.text.source.AnnotationModel#modifyAnnotationPosition(org.eclipse.jface.text.source.Annotation, org.eclipse.jface.text.Position)
+	 */
+	public void modifyAnnotationPosition(Annotation annotation, Position position) {
+		invalidateIndex();
+		super.modifyAnnotationPosition(annotation, position);
+	}
+
+	/*
+	 * Positions may also have been changed in place by clients before they notify the model.
+	 * @see org.eclipse.jface.text.source.AnnotationModel#fireModelChanged(org.eclipse.jface.text.source.AnnotationModelEvent)
+	 */
+	protected void fireModelChanged(AnnotationModelEvent event) {
+		invalidateIndex();
+		super.fireModelChanged(event);
+	}
+
 	/**
 	 * Changes the state of the given annotation to collapsed. An appropriate
 	 * annotation model change event is sent out.
@@ -113,7 +294,7 @@ public class ProjectionAnnotationModel extends AnnotationModel {
 
 		boolean collapsing= false;
 
-		Iterator iterator= getAnnotationIterator();
+		Iterator iterator= getOverlappingAnnotations(offset, length);
 		while (iterator.hasNext()) {
 			ProjectionAnnotation annotation= (ProjectionAnnotation) iterator.next();
 			if (!annotation.isCollapsed()) {
@@ -146,7 +327,7 @@ public class ProjectionAnnotationModel extends AnnotationModel {
 
 		boolean expanding= false;
 
-		Iterator iterator= getAnnotationIterator();
+		Iterator iterator= getOverlappingAnnotations(offset, length);
 		while (iterator.hasNext()) {
 			ProjectionAnnotation annotation= (ProjectionAnnotation) iterator.next();
 			if (annotation.isCollapsed()) {
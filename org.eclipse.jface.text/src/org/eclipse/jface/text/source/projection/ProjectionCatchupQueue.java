@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2008 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jface.text.source.projection;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jface.text.Position;
+import org.eclipse.jface.text.source.Annotation;
+import org.eclipse.jface.text.source.AnnotationModelEvent;
+import org.eclipse.jface.text.source.IAnnotationModel;
+
+
+/**
+ * Queue of pending catch up requests of a {@link ProjectionViewer}. Requests are coalesced as
+ * they are queued: the changes of consecutive events are merged into one net set of added,
+ * changed and removed annotations, and a world change supersedes everything queued before it.
+ * A burst of annotation model changes is thus caught up with in one go.
+ * <p>
+ * Not thread safe, clients synchronize the access.
+ * </p>
+ *
+ * @since 3.7
+ */
+final class ProjectionCatchupQueue {
+
+	/**
+	 * A pending catch up request, merged from one or more events of the same annotation model.
+	 */
+	private static final class Request {
+
+		final IAnnotationModel fModel;
+		final boolean fWorldChange;
+		/** Whether this is a world change without event, which is caught up with unconditionally. */
+		final boolean fUnconditional;
+		/** The most recent merged event, <code>null</code> for a world change without event. */
+		AnnotationModelEvent fLatest;
+		/** The number of merged events. */
+		int fMerged= 1;
+
+		final Set fAdded= new LinkedHashSet();
+		final Set fChanged= new LinkedHashSet();
+		/** Removed annotations with their positions at the time of removal. */
+		final Map fRemoved= new LinkedHashMap();
+
+		Request(AnnotationModelEvent event) {
+			fModel= event != null ? event.getAnnotationModel() : null;
+			fWorldChange= event == null || event.isWorldChange();
+			fUnconditional= event == null;
+			fLatest= event;
+			if (!fWorldChange)
+				merge(event);
+		}
+
+		boolean canMerge(AnnotationModelEvent event) {
+			return fWorldChange || event.getAnnotationModel() == fModel;
+		}
+
+		void add(AnnotationModelEvent event) {
+			fLatest= event;
+			fMerged++;
+			// a world change reinitializes from the current model, which subsumes later changes
+			if (!fWorldChange)
+				merge(event);
+		}
+
+		private void merge(AnnotationModelEvent event) {
+			Annotation[] removed= event.getRemovedAnnotations();
+			for (int i= 0; i < removed.length; i++) {
+				Annotation annotation= removed[i];
+				fChanged.remove(annotation);
+				// the viewer has never seen an annotation that is added and removed again
+				if (!fAdded.remove(annotation) && !fRemoved.containsKey(annotation))
+					fRemoved.put(annotation, event.getPositionOfRemovedAnnotation(annotation));
+			}
+
+			Annotation[] added= event.getAddedAnnotations();
+			for (int i= 0; i < added.length; i++)
+				fAdded.add(added[i]);
+
+			Annotation[] changed= event.getChangedAnnotations();
+			for (int i= 0; i < changed.length; i++) {
+				if (!fAdded.contains(changed[i]))
+					fChanged.add(changed[i]);
+			}
+		}
+
+		AnnotationModelEvent toEvent() {
+			if (fUnconditional)
+				return null;
+			if (fMerged == 1)
+				return fLatest;
+			if (fWorldChange)
+				return new CoalescedEvent(fModel, true, fLatest);
+
+			AnnotationModelEvent event= new CoalescedEvent(fModel, false, fLatest);
+			for (Iterator e= fRemoved.entrySet().iterator(); e.hasNext();) {
+				Map.Entry entry= (Map.Entry) e.next();
+				event.annotationRemoved((Annotation) entry.getKey(), (Position) entry.getValue());
+			}
+			for (Iterator e= fAdded.iterator(); e.hasNext();)
+				event.annotationAdded((Annotation) e.next());
+			for (Iterator e= fChanged.iterator(); e.hasNext();)
+				event.annotationChanged((Annotation) e.next());
+			return event;
+		}
+	}
+
+	/**
+	 * An event standing for several merged events. It is as valid as the most recent of them.
+	 */
+	private static final class CoalescedEvent extends AnnotationModelEvent {
+
+		private final AnnotationModelEvent fLatest;
+
+		CoalescedEvent(IAnnotationModel model, boolean isWorldChange, AnnotationModelEvent latest) {
+			super(model, isWorldChange);
+			fLatest= latest;
+		}
+
+		/*
+		 * @see org.eclipse.jface.text.source.AnnotationModelEvent#isValid()
+		 */
+		public boolean isValid() {
+			return fLatest.isValid();
+		}
+	}
+
+	private final LinkedList fRequests= new LinkedList();
+
+	/**
+	 * Queues the given event, merging it into the last pending request if possible.
+	 *
+	 * @param event the annotation model event, <code>null</code> for a world change
+	 * @return <code>true</code> if the queue was empty before
+	 */
+	boolean add(AnnotationModelEvent event) {
+		boolean wasEmpty= fRequests.isEmpty();
+		if (event == null || event.isWorldChange()) {
+			fRequests.clear();
+			fRequests.addLast(new Request(event));
+		} else if (!wasEmpty && ((Request) fRequests.getLast()).canMerge(event)) {
+			((Request) fRequests.getLast()).add(event);
+		} else {
+			fRequests.addLast(new Request(event));
+		}
+		return wasEmpty;
+	}
+
+	/**
+	 * Removes and returns the next pending request as an annotation model event.
+	 *
+	 * @return the event, <code>null</code> for a world change without event
+	 * @throws java.util.NoSuchElementException if the queue is empty
+	 */
+	AnnotationModelEvent remove() {
+		return ((Request) fRequests.removeFirst()).toEvent();
+	}
+
+	/**
+	 * Returns whether there are pending requests.
+	 *
+	 * @return <code>true</code> if there are no pending requests
+	 */
+	boolean isEmpty() {
+		return fRequests.isEmpty();
+	}
+
+	/**
+	 * Discards all pending requests.
+	 */
+	void clear() {
+		fRequests.clear();
+	}
+}
@@ -0,0 +1,162 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2008 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jface.text.source.projection;
+
+import java.lang.reflect.Method;
+
+/**
+ * Learns how long the execution of projection commands takes in each update mode of a
+ * {@link ProjectionViewer} and chooses the mode expected to be cheapest.
+ * <p>
+ * For each mode the execution time is modeled as <code>fixed + perCost * costs</code>, where
+ * <code>costs</code> is the expected execution cost computed by the command queue. Both
+ * parameters are fitted by a least squares regression over the observed executions, in which
+ * older observations decay, so that the model follows the current document and widget.
+ * </p>
+ * <p>
+ * Until a mode has been observed often enough, the static thresholds of the command queue decide.
+ * Another mode is only preferred over the one the thresholds would choose when it is predicted to
+ * be clearly cheaper.
+ * </p>
+ * <p>
+ * Times are measured in microseconds with {@link #currentTimeMicros()}, as most executions take
+ * less than the resolution of {@link System#currentTimeMillis()}.
+ * </p>
+ *
+ * @since 3.7
+ */
+final class ProjectionCostModel {
+
+	/** Weight of previous observations with each new one. */
+	private static final double DECAY= 0.9;
+	/** Observations needed before the predictions of a mode are trusted. */
+	private static final int MIN_SAMPLES= 4;
+	/** Factor by which another mode must be predicted cheaper to be preferred. */
+	private static final double HYSTERESIS= 0.75;
+
+	/* decayed regression sums per mode */
+	private final double[] fWeights= new double[ProjectionMetrics.MODE_COUNT];
+	private final double[] fSumX= new double[ProjectionMetrics.MODE_COUNT];
+	private final double[] fSumY= new double[ProjectionMetrics.MODE_COUNT];
+	private final double[] fSumXX= new double[ProjectionMetrics.MODE_COUNT];
+	private final double[] fSumXY= new double[ProjectionMetrics.MODE_COUNT];
+	private final int[] fSamples= new int[ProjectionMetrics.MODE_COUNT];
+
+	/** <code>System.nanoTime()</code> if the runtime provides it, <code>null</code> otherwise */
+	private static final Method NANO_TIME;
+	static {
+		Method nanoTime;
+		try {
+			nanoTime= System.class.getMethod("nanoTime", null); //$NON-NLS-1$
+		} catch (NoSuchMethodException x) {
+			nanoTime= null;
+		} catch (SecurityException x) {
+			nanoTime= null;
+		}
+		NANO_TIME= nanoTime;
+	}
+
+	/**
+	 * Returns the current value of the most precise clock available, in microseconds. Only the
+	 * difference of two values is meaningful.
+	 *
+	 * @return the current time in microseconds
+	 */
+	static long currentTimeMicros() {
+		if (NANO_TIME != null) {
+			try {
+				return ((Long) NANO_TIME.invoke(null, null)).longValue() / 1000;
+			} catch (Exception x) {
+				// fall back to the system clock
+			}
+		}
+		return System.currentTimeMillis() * 1000;
+	}
+
+	/**
+	 * Chooses the update mode for executing commands of the given expected costs.
+	 *
+	 * @param costs the expected execution costs
+	 * @param staticMode the mode chosen by the static thresholds
+	 * @return the mode to use
+	 */
+	int chooseMode(int costs, int staticMode) {
+		if (fSamples[staticMode] < MIN_SAMPLES)
+			return staticMode;
+
+		int best= staticMode;
+		double bestTime= predict(staticMode, costs) * HYSTERESIS;
+		for (int mode= 0; mode < ProjectionMetrics.MODE_COUNT; mode++) {
+			if (mode == staticMode || fSamples[mode] < MIN_SAMPLES)
+				continue;
+			double time= predict(mode, costs);
+			if (time < bestTime) {
+				best= mode;
+				bestTime= time;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Records an observed execution.
+	 *
+	 * @param mode the update mode used
+	 * @param costs the expected execution costs
+	 * @param micros the observed execution time in microseconds
+	 */
+	void record(int mode, int costs, long micros) {
+		fWeights[mode]= fWeights[mode] * DECAY + 1;
+		fSumX[mode]= fSumX[mode] * DECAY + costs;
+		fSumY[mode]= fSumY[mode] * DECAY + micros;
+		fSumXX[mode]= fSumXX[mode] * DECAY + (double) costs * costs;
+		fSumXY[mode]= fSumXY[mode] * DECAY + (double) costs * micros;
+		fSamples[mode]++;
+	}
+
+	/**
+	 * Predicts the execution time of the given mode.
+	 *
+	 * @param mode the update mode
+	 * @param costs the expected execution costs
+	 * @return the predicted time in microseconds
+	 */
+	double predict(int mode, int costs) {
+		double w= fWeights[mode];
+		if (w == 0)
+			return 0;
+
+		double meanX= fSumX[mode] / w;
+		double meanY= fSumY[mode] / w;
+		double variance= fSumXX[mode] / w - meanX * meanX;
+		double perCost;
+		if (variance > 1e-9)
+			perCost= Math.max(0, (fSumXY[mode] / w - meanX * meanY) / variance);
+		else
+			perCost= meanX > 0 ? meanY / meanX : 0; // all observations of the same costs
+		double fixed= Math.max(0, meanY - perCost * meanX);
+		return fixed + perCost * costs;
+	}
+
+	/**
+	 * Forgets all observations.
+	 */
+	void reset() {
+		for (int mode= 0; mode < ProjectionMetrics.MODE_COUNT; mode++) {
+			fWeights[mode]= 0;
+			fSumX[mode]= 0;
+			fSumY[mode]= 0;
+			fSumXX[mode]= 0;
+			fSumXY[mode]= 0;
+			fSamples[mode]= 0;
+		}
+	}
+}
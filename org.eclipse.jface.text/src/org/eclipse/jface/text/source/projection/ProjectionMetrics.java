@@ -0,0 +1,184 @@
+/*******************************************************************************
+ * Copyright (c) 2000, 2008 IBM Corporation and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.jface.text.source.projection;
+
+
+/**
+ * Counters of the incremental catch up of a {@link ProjectionViewer} with its projection
+ * annotation model. Instances are snapshots, see {@link ProjectionViewer#getProjectionMetrics()}.
+ * <p>
+ * A catch up executes the projection commands derived from an annotation model event in one of
+ * three modes: {@link #MODE_INCREMENTAL incrementally}, invalidating the presentation of each
+ * changed range, {@link #MODE_INVALIDATE invalidating} the whole presentation once, or with
+ * {@link #MODE_REDRAW redraw} turned off during the execution.
+ * </p>
+ *
+ * @since 3.7
+ * @noinstantiate This class is not intended to be instantiated by clients.
+ */
+public final class ProjectionMetrics {
+
+	/** Mode which invalidates the presentation of each changed range. */
+	public static final int MODE_INCREMENTAL= 0;
+	/** Mode which invalidates the whole presentation once. */
+	public static final int MODE_INVALIDATE= 1;
+	/** Mode which turns redraw off while executing. */
+	public static final int MODE_REDRAW= 2;
+
+	static final int MODE_COUNT= 3;
+
+	private int fCatchups;
+	private long fCommands;
+	private long fCosts;
+	/** in microseconds */
+	private long fExecutionTime;
+	/** in microseconds */
+	private long fLastExecutionTime;
+	private final int[] fModeCounts= new int[MODE_COUNT];
+	private final int[] fAdaptedModeCounts= new int[MODE_COUNT];
+
+	ProjectionMetrics() {
+	}
+
+	/**
+	 * Records a catch up.
+	 *
+	 * @param mode the chosen mode
+	 * @param adapted <code>true</code> if the cost model chose another mode than the static thresholds
+	 * @param commands the number of executed commands
+	 * @param costs the expected execution costs
+	 * @param micros the execution time in microseconds
+	 */
+	void record(int mode, boolean adapted, int commands, int costs, long micros) {
+		fCatchups++;
+		fCommands+= commands;
+		fCosts+= costs;
+		fExecutionTime+= micros;
+		fLastExecutionTime= micros;
+		fModeCounts[mode]++;
+		if (adapted)
+			fAdaptedModeCounts[mode]++;
+	}
+
+	void reset() {
+		fCatchups= 0;
+		fCommands= 0;
+		fCosts= 0;
+		fExecutionTime= 0;
+		fLastExecutionTime= 0;
+		for (int mode= 0; mode < MODE_COUNT; mode++) {
+			fModeCounts[mode]= 0;
+			fAdaptedModeCounts[mode]= 0;
+		}
+	}
+
+	ProjectionMetrics copy() {
+		ProjectionMetrics copy= new ProjectionMetrics();
+		copy.fCatchups= fCatchups;
+		copy.fCommands= fCommands;
+		copy.fCosts= fCosts;
+		copy.fExecutionTime= fExecutionTime;
+		copy.fLastExecutionTime= fLastExecutionTime;
+		System.arraycopy(fModeCounts, 0, copy.fModeCounts, 0, MODE_COUNT);
+		System.arraycopy(fAdaptedModeCounts, 0, copy.fAdaptedModeCounts, 0, MODE_COUNT);
+		return copy;
+	}
+
+	/**
+	 * Returns the number of incremental catch ups which executed projection commands.
+	 *
+	 * @return the number of catch ups
+	 */
+	public int getCatchupCount() {
+		return fCatchups;
+	}
+
+	/**
+	 * Returns the total number of executed projection commands.
+	 *
+	 * @return the number of commands
+	 */
+	public long getCommandCount() {
+		return fCommands;
+	}
+
+	/**
+	 * Returns the average number of projection commands per catch up.
+	 *
+	 * @return the average number of commands, <code>0</code> if there was no catch up
+	 */
+	public double getCommandsPerCatchup() {
+		return fCatchups == 0 ? 0 : (double) fCommands / fCatchups;
+	}
+
+	/**
+	 * Returns the sum of the expected execution costs of all catch ups.
+	 *
+	 * @return the expected costs
+	 */
+	public long getExpectedCosts() {
+		return fCosts;
+	}
+
+	/**
+	 * Returns the total time spent executing projection commands, including the redraw or
+	 * invalidation of the chosen mode and the resulting repaint of the text widget.
+	 *
+	 * @return the time in milliseconds
+	 */
+	public long getExecutionTime() {
+		return fExecutionTime / 1000;
+	}
+
+	/**
+	 * Returns the time spent executing the projection commands of the last catch up.
+	 *
+	 * @return the time in milliseconds
+	 */
+	public long getLastExecutionTime() {
+		return fLastExecutionTime / 1000;
+	}
+
+	/**
+	 * Returns how often the given mode was chosen.
+	 *
+	 * @param mode one of the <code>MODE_*</code> constants
+	 * @return the number of catch ups executed in the given mode
+	 */
+	public int getModeCount(int mode) {
+		return fModeCounts[mode];
+	}
+
+	/**
+	 * Returns how often the given mode was chosen by the cost model in place of the mode the
+	 * static cost thresholds suggested.
+	 *
+	 * @param mode one of the <code>MODE_*</code> constants
+	 * @return the number of catch ups executed in the given mode because of observed costs
+	 */
+	public int getAdaptedModeCount(int mode) {
+		return fAdaptedModeCounts[mode];
+	}
+
+	/*
+	 * @see java.lang.Object#toString()
+	 */
+	public String toString() {
+		StringBuffer buffer= new StringBuffer();
+		buffer.append("catchups=").append(fCatchups); //$NON-NLS-1$
+		buffer.append(", commands=").append(fCommands); //$NON-NLS-1$
+		buffer.append(", time=").append(fExecutionTime / 1000).append("ms"); //$NON-NLS-1$ //$NON-NLS-2$
+		buffer.append(", incremental=").append(fModeCounts[MODE_INCREMENTAL]); //$NON-NLS-1$
+		buffer.append(", invalidate=").append(fModeCounts[MODE_INVALIDATE]); //$NON-NLS-1$
+		buffer.append(", redraw=").append(fModeCounts[MODE_REDRAW]); //$NON-NLS-1$
+		return buffer.toString();
+	}
+}
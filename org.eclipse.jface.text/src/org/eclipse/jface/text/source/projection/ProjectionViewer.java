@@ -13,8 +13,12 @@
 package org.eclipse.jface.text.source.projection;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import org.eclipse.swt.SWTError;
 import org.eclipse.swt.custom.ST;
@@ -232,6 +236,11 @@ public class ProjectionViewer extends SourceViewer implements ITextViewerExtensi
 
 		final static int REDRAW_COSTS= 15;
 		final static int INVALIDATION_COSTS= 10;
+		/**
+		 * Costs beyond which commands are not assessed any further.
+		 * @since 3.7
+		 */
+		final static int MAX_COSTS= 1000;
 
 		List fList= new ArrayList(15);
 		int fExpectedExecutionCosts= -1;
@@ -251,33 +260,169 @@ public class ProjectionViewer extends SourceViewer implements ITextViewerExtensi
 		}
 
 		boolean passedRedrawCostsThreshold() {
-			if (fExpectedExecutionCosts == -1)
-				computeExpectedExecutionCosts();
-			return fExpectedExecutionCosts > REDRAW_COSTS;
+			return getExpectedExecutionCosts() > REDRAW_COSTS;
 		}
 
 		boolean passedInvalidationCostsThreshold() {
+			return getExpectedExecutionCosts() > INVALIDATION_COSTS;
+		}
+
+		/**
+		 * Returns the update mode suggested by the static cost thresholds.
+		 *
+		 * @return one of the <code>ProjectionMetrics.MODE_*</code> constants
+		 * @since 3.7
+		 */
+		int computeStaticMode() {
+			if (passedRedrawCostsThreshold())
+				return ProjectionMetrics.MODE_REDRAW;
+			if (passedInvalidationCostsThreshold())
+				return ProjectionMetrics.MODE_INVALIDATE;
+			return ProjectionMetrics.MODE_INCREMENTAL;
+		}
+
+		/**
+		 * Returns the expected execution costs, capped at {@link #MAX_COSTS}.
+		 *
+		 * @return the expected execution costs
+		 * @since 3.7
+		 */
+		int getExpectedExecutionCosts() {
 			if (fExpectedExecutionCosts == -1)
 				computeExpectedExecutionCosts();
-			return fExpectedExecutionCosts > INVALIDATION_COSTS;
+			return fExpectedExecutionCosts;
+		}
+
+		int size() {
+			return fList.size();
 		}
 
 		private void computeExpectedExecutionCosts() {
-			int max_costs= Math.max(REDRAW_COSTS, INVALIDATION_COSTS);
-			fExpectedExecutionCosts= fList.size();
-			if (fExpectedExecutionCosts <= max_costs) {
+			// the costs are fed into the cost model, so count beyond the static thresholds
+			fExpectedExecutionCosts= Math.min(fList.size(), MAX_COSTS);
+			if (fExpectedExecutionCosts < MAX_COSTS) {
 				ProjectionCommand command;
 				Iterator e= fList.iterator();
 				while (e.hasNext()) {
 					command= (ProjectionCommand) e.next();
 					fExpectedExecutionCosts += command.computeExpectedCosts();
-					if (fExpectedExecutionCosts > max_costs)
+					if (fExpectedExecutionCosts >= MAX_COSTS) {
+						fExpectedExecutionCosts= MAX_COSTS;
 						break;
+					}
 				}
 			}
 		}
 	}
 
+	/**
+	 * Completes the projection of a lazily initialized visible document in slices, run when the
+	 * UI thread is idle. Each slice removes the collapsed regions of some pending annotations
+	 * while keeping the top line of the viewer.
+	 *
+	 * @since 3.7
+	 */
+	private class LazyProjectionCompletion implements Runnable {
+
+		private final ProjectionDocument fProjection;
+		private final Iterator fAnnotations;
+		private boolean fCanceled= false;
+
+		LazyProjectionCompletion(ProjectionDocument projection, List annotations) {
+			fProjection= projection;
+			fAnnotations= annotations.iterator();
+		}
+
+		void schedule() {
+			StyledText widget= getTextWidget();
+			if (widget != null && !widget.isDisposed())
+				widget.getDisplay().asyncExec(this);
+		}
+
+		void cancel() {
+			fCanceled= true;
+		}
+
+		/*
+		 * @see java.lang.Runnable#run()
+		 */
+		public void run() {
+			if (fCanceled)
+				return;
+
+			StyledText widget= getTextWidget();
+			if (widget == null || widget.isDisposed() || getVisibleDocument() != fProjection) {
+				// the viewer has been disposed or shows another document by now
+				cancel();
+				return;
+			}
+
+			try {
+				if (complete(SLICE_TIME))
+					fLazyCompletion= null;
+				else
+					schedule();
+			} catch (BadLocationException x) {
+				fLazyCompletion= null;
+				try {
+					catchupWithProjectionAnnotationModel(null);
+				} catch (BadLocationException x1) {
+					throw new IllegalArgumentException();
+				}
+			}
+		}
+
+		/**
+		 * Applies pending collapsed annotations.
+		 *
+		 * @param timeLimit the time in milliseconds after which to stop
+		 * @return <code>true</code> if all pending annotations are applied
+		 * @throws BadLocationException in case a position is invalid
+		 */
+		private boolean complete(long timeLimit) throws BadLocationException {
+			long start= System.currentTimeMillis();
+			int topIndex= getTopIndex();
+			setRedraw(false);
+			try {
+				while (fAnnotations.hasNext()) {
+					// the model may have changed since, caught up changes are applied already
+					ProjectionAnnotation annotation= (ProjectionAnnotation) fAnnotations.next();
+					if (annotation.isCollapsed()) {
+						Position position= fProjectionAnnotationModel.getPosition(annotation);
+						if (position != null && !position.isDeleted())
+							collapse(fProjection, position);
+					}
+					if (System.currentTimeMillis() - start >= timeLimit)
+						break;
+				}
+			} finally {
+				setRedraw(true, topIndex);
+			}
+			return !fAnnotations.hasNext();
+		}
+	}
+
+	/**
+	 * Minimal number of projection annotations for which the projection is initialized lazily.
+	 * @since 3.7
+	 */
+	private static final int LAZY_INITIALIZATION_THRESHOLD= 100;
+	/**
+	 * Number of lines assumed to be visible if the text widget has not been laid out yet.
+	 * @since 3.7
+	 */
+	private static final int DEFAULT_VIEWPORT_LINES= 60;
+	/**
+	 * Number of viewport heights whose collapsed annotations are applied before the projection is shown.
+	 * @since 3.7
+	 */
+	private static final int VIEWPORT_LOOKAHEAD= 3;
+	/**
+	 * Time in milliseconds each slice of a lazy projection completion may take.
+	 * @since 3.7
+	 */
+	private static final int SLICE_TIME= 30;
+
 	/** The projection annotation model used by this viewer. */
 	private ProjectionAnnotationModel fProjectionAnnotationModel;
 	/** The annotation model listener */
@@ -292,14 +437,34 @@ public class ProjectionViewer extends SourceViewer implements ITextViewerExtensi
 	private List fProjectionListeners;
 	/** Internal lock for protecting the list of pending requests */
 	private Object fLock= new Object();
-	/** The list of pending requests */
-	private List fPendingRequests= new ArrayList();
+	/** The coalescing queue of pending requests */
+	private ProjectionCatchupQueue fPendingRequests= new ProjectionCatchupQueue();
 	/** The replace-visible-document execution trigger */
 	private IDocument fReplaceVisibleDocumentExecutionTrigger;
 	/** <code>true</code> if projection was on the last time we switched to segmented mode. */
 	private boolean fWasProjectionEnabled;
 	/** The queue of projection commands used to assess the costs of projection changes. */
 	private ProjectionCommandQueue fCommandQueue;
+	/**
+	 * The model of the observed costs of executing projection commands.
+	 * @since 3.7
+	 */
+	private final ProjectionCostModel fCostModel= new ProjectionCostModel();
+	/**
+	 * The counters of the incremental catch up with the projection annotation model.
+	 * @since 3.7
+	 */
+	private final ProjectionMetrics fMetrics= new ProjectionMetrics();
+	/**
+	 * Whether the projection is initialized lazily.
+	 * @since 3.7
+	 */
+	private boolean fLazyInitialization= false;
+	/**
+	 * The pending completion of a lazily initialized projection, <code>null</code> if none.
+	 * @since 3.7
+	 */
+	private LazyProjectionCompletion fLazyCompletion;
 	/**
 	 * The amount of lines deleted by the last document event issued by the
 	 * visible document event.
@@ -404,6 +569,28 @@ public class ProjectionViewer extends SourceViewer implements ITextViewerExtensi
 		return null;
 	}
 
+	/**
+	 * Returns a snapshot of the counters of the incremental catch up of this viewer with its
+	 * projection annotation model.
+	 *
+	 * @return the projection metrics
+	 * @since 3.7
+	 */
+	public ProjectionMetrics getProjectionMetrics() {
+		return fMetrics.copy();
+	}
+
+	/**
+	 * Resets the counters of the incremental catch up and forgets the observed costs from which
+	 * this viewer chooses how to update its presentation.
+	 *
+	 * @since 3.7
+	 */
+	public void resetProjectionMetrics() {
+		fMetrics.reset();
+		fCostModel.reset();
+	}
+
 	/*
 	 * @see org.eclipse.jface.text.TextViewer#createSlaveDocumentManager()
 	 */
@@ -552,7 +739,7 @@ public class ProjectionViewer extends SourceViewer implements ITextViewerExtensi
 			Position found= null;
 			Annotation bestMatch= null;
 			Point selection= getSelectedRange();
-			for (Iterator e= fProjectionAnnotationModel.getAnnotationIterator(); e.hasNext();) {
+			for (Iterator e= fProjectionAnnotationModel.getOverlappingAnnotations(selection.x, selection.y); e.hasNext();) {
 				ProjectionAnnotation annotation= (ProjectionAnnotation) e.next();
 				if (annotation.isCollapsed()) {
 					Position position= fProjectionAnnotationModel.getPosition(annotation);
@@ -581,7 +768,7 @@ public class ProjectionViewer extends SourceViewer implements ITextViewerExtensi
 			Position found= null;
 			Annotation bestMatch= null;
 			Point selection= getSelectedRange();
-			for (Iterator e= fProjectionAnnotationModel.getAnnotationIterator(); e.hasNext();) {
+			for (Iterator e= fProjectionAnnotationModel.getOverlappingAnnotations(selection.x, selection.y); e.hasNext();) {
 				ProjectionAnnotation annotation= (ProjectionAnnotation) e.next();
 				if (!annotation.isCollapsed()) {
 					Position position= fProjectionAnnotationModel.getPosition(annotation);
@@ -869,6 +1056,104 @@ public class ProjectionViewer extends SourceViewer implements ITextViewerExtensi
 		}
 	}
 
+	/**
+	 * Hides the given ranges of one projection position by collapsing them. The ranges are
+	 * expected to be {@link #coalesce(IRegion[]) coalesced}. If requested, redraw requests are
+	 * issued once per line instead of once per range.
+	 *
+	 * @param regions the sorted, disjoint ranges to hide
+	 * @param fireRedraw <code>true</code> if a redraw request should be issued, <code>false</code> otherwise
+	 * @throws BadLocationException in case a range is invalid
+	 */
+	private void collapse(IRegion[] regions, boolean fireRedraw) throws BadLocationException {
+		IDocument document= getDocument();
+		int lastLine= -1;
+		for (int i= 0; i < regions.length; i++) {
+			// sub-line ranges share their lines, repaint the line above each line only once
+			int line= fireRedraw ? document.getLineOfOffset(regions[i].getOffset()) : -1;
+			collapse(regions[i].getOffset(), regions[i].getLength(), fireRedraw && line != lastLine);
+			lastLine= line;
+		}
+	}
+
+	/**
+	 * Makes the given ranges of one projection position visible again while not changing the
+	 * folding state of any contained ranges. The ranges are expected to be
+	 * {@link #coalesce(IRegion[]) coalesced}. If requested, a single redraw request is issued for
+	 * all of them.
+	 *
+	 * @param regions the sorted, disjoint ranges to expand
+	 * @param fireRedraw <code>true</code> if a redraw request should be issued, <code>false</code> otherwise
+	 * @throws BadLocationException in case a range is invalid
+	 */
+	private void expand(IRegion[] regions, boolean fireRedraw) throws BadLocationException {
+		if (regions.length == 0)
+			return;
+
+		for (int i= 0; i < regions.length; i++)
+			expand(regions[i].getOffset(), regions[i].getLength(), false);
+
+		if (fireRedraw && getVisibleDocument() instanceof ProjectionDocument) {
+			IRegion last= regions[regions.length - 1];
+			int offset= regions[0].getOffset();
+			internalInvalidateTextPresentation(offset, last.getOffset() + last.getLength() - offset);
+		}
+	}
+
+	/**
+	 * Sorts the given ranges by offset and merges overlapping and adjacent ones, dropping empty
+	 * ones. Projection positions of sub-line folds compute many small, often adjacent ranges;
+	 * each range handed to the projection document splits a fragment, so every merged range saves
+	 * a fragment and its updates on each change of the master document.
+	 *
+	 * @param regions the ranges, may be <code>null</code>
+	 * @return the sorted, disjoint ranges, or <code>null</code> if <code>regions</code> is
+	 *         <code>null</code>
+	 */
+	static IRegion[] coalesce(IRegion[] regions) {
+		if (regions == null || regions.length == 0)
+			return regions;
+
+		IRegion[] sorted= (IRegion[]) regions.clone();
+		Arrays.sort(sorted, REGION_ORDER);
+
+		List merged= new ArrayList(sorted.length);
+		int offset= -1;
+		int end= -1;
+		for (int i= 0; i < sorted.length; i++) {
+			IRegion region= sorted[i];
+			if (region == null || region.getLength() <= 0)
+				continue;
+			int regionEnd= region.getOffset() + region.getLength();
+			if (offset >= 0 && region.getOffset() <= end) {
+				end= Math.max(end, regionEnd);
+				continue;
+			}
+			if (offset >= 0)
+				merged.add(new Region(offset, end - offset));
+			offset= region.getOffset();
+			end= regionEnd;
+		}
+		if (offset >= 0)
+			merged.add(new Region(offset, end - offset));
+
+		if (merged.size() == regions.length) {
+			// nothing merged nor dropped, keep the client's region objects
+			return sorted;
+		}
+		return (IRegion[]) merged.toArray(new IRegion[merged.size()]);
+	}
+
+	private static final Comparator REGION_ORDER= new Comparator() {
+		public int compare(Object o1, Object o2) {
+			IRegion r1= (IRegion) o1;
+			IRegion r2= (IRegion) o2;
+			if (r1 == null || r2 == null)
+				return r1 == null ? (r2 == null ? 0 : 1) : -1;
+			return r1.getOffset() - r2.getOffset();
+		}
+	};
+
 	/**
 	 * Processes the request for catch up with the annotation model in the UI thread. If the current
 	 * thread is not the UI thread or there are pending catch up requests, a new request is posted.
@@ -903,8 +1188,7 @@ public class ProjectionViewer extends SourceViewer implements ITextViewerExtensi
 	 */
 	protected final void postCatchupRequest(final AnnotationModelEvent event) {
 		synchronized (fLock) {
-			fPendingRequests.add(event);
-			if (fPendingRequests.size() == 1) {
+			if (fPendingRequests.add(event)) {
 				StyledText widget= getTextWidget();
 				if (widget != null) {
 					Display display= widget.getDisplay();
@@ -915,9 +1199,9 @@ public class ProjectionViewer extends SourceViewer implements ITextViewerExtensi
 									while (true) {
 										AnnotationModelEvent ame= null;
 										synchronized (fLock) {
-											if (fPendingRequests.size() == 0)
+											if (fPendingRequests.isEmpty())
 												return;
-											ame= (AnnotationModelEvent) fPendingRequests.remove(0);
+											ame= fPendingRequests.remove();
 										}
 										catchupWithProjectionAnnotationModel(ame);
 									}
@@ -993,14 +1277,20 @@ public class ProjectionViewer extends SourceViewer implements ITextViewerExtensi
 			int topIndex= isRedrawing ? getTopIndex() : -1;
 
 			processDeletions(event, removedAnnotations, true);
-			List coverage= new ArrayList();
+			Map coverage= new IdentityHashMap();
 			processChanges(addedAnnotations, true, coverage);
 			processChanges(changedAnnotation, true, coverage);
 
 			ProjectionCommandQueue commandQueue= fCommandQueue;
 			fCommandQueue= null;
 
-			if (commandQueue.passedRedrawCostsThreshold()) {
+			int costs= commandQueue.getExpectedExecutionCosts();
+			int commands= commandQueue.size();
+			int staticMode= commandQueue.computeStaticMode();
+			int mode= fCostModel.chooseMode(costs, staticMode);
+			long start= ProjectionCostModel.currentTimeMicros();
+
+			if (mode == ProjectionMetrics.MODE_REDRAW) {
 				setRedraw(false);
 				try {
 					executeProjectionCommands(commandQueue, false);
@@ -1011,7 +1301,7 @@ public class ProjectionViewer extends SourceViewer implements ITextViewerExtensi
 				}
 			} else {
 				try {
-					boolean fireRedraw= !commandQueue.passedInvalidationCostsThreshold();
+					boolean fireRedraw= mode == ProjectionMetrics.MODE_INCREMENTAL;
 					executeProjectionCommands(commandQueue, fireRedraw);
 					if (!fireRedraw)
 						invalidateTextPresentation();
@@ -1019,6 +1309,18 @@ public class ProjectionViewer extends SourceViewer implements ITextViewerExtensi
 					reinitializeProjection();
 				}
 			}
+
+			if (commands > 0) {
+				// the modes mostly differ in what they leave to be painted, so the observed time includes the repaint
+				StyledText textWidget= getTextWidget();
+				boolean painted= isRedrawing && redraws() && textWidget != null && !textWidget.isDisposed();
+				if (painted)
+					textWidget.update();
+				long micros= ProjectionCostModel.currentTimeMicros() - start;
+				if (painted)
+					fCostModel.record(mode, costs, micros);
+				fMetrics.record(mode, mode != staticMode, commands, costs, micros);
+			}
 		}
 	}
 
@@ -1053,7 +1355,7 @@ public class ProjectionViewer extends SourceViewer implements ITextViewerExtensi
 
 	private ProjectionAnnotation[] computeCollapsedNestedAnnotations(int offset, int length) {
 		List annotations= new ArrayList(5);
-		Iterator e= fProjectionAnnotationModel.getAnnotationIterator();
+		Iterator e= fProjectionAnnotationModel.getEnclosedAnnotations(offset, length);
 		while (e.hasNext()) {
 			ProjectionAnnotation annotation= (ProjectionAnnotation) e.next();
 			if (annotation.isCollapsed()) {
@@ -1139,7 +1441,7 @@ public class ProjectionViewer extends SourceViewer implements ITextViewerExtensi
 
 			if (position instanceof IProjectionPosition) {
 				IProjectionPosition projPosition= (IProjectionPosition) position;
-				return projPosition.computeProjectionRegions(document);
+				return coalesce(projPosition.computeProjectionRegions(document));
 			}
 
 			int line= document.getLineOfOffset(position.getOffset());
@@ -1196,7 +1498,7 @@ public class ProjectionViewer extends SourceViewer implements ITextViewerExtensi
 	    return -1;
 	}
 	
-	private void processChanges(Annotation[] annotations, boolean fireRedraw, List coverage) throws BadLocationException {
+	private void processChanges(Annotation[] annotations, boolean fireRedraw, Map coverage) throws BadLocationException {
 		for (int i= 0; i < annotations.length; i++) {
 			ProjectionAnnotation annotation= (ProjectionAnnotation) annotations[i];
 			Position position= fProjectionAnnotationModel.getPosition(annotation);
@@ -1206,11 +1508,10 @@ public class ProjectionViewer extends SourceViewer implements ITextViewerExtensi
 
 			if (!covers(coverage, position)) {
 				if (annotation.isCollapsed()) {
-					coverage.add(position);
+					coverage.put(position, position);
 					IRegion[] regions= computeCollapsedRegions(position);
 					if (regions != null)
-						for (int j= 0; j < regions.length; j++)
-							collapse(regions[j].getOffset(), regions[j].getLength(), fireRedraw);
+						collapse(regions, fireRedraw);
 				} else {
 					//XXX: Lambda4jdt commented out original execution path
 					//expand(position.getOffset(), position.getLength(), fireRedraw);
@@ -1229,11 +1530,10 @@ public class ProjectionViewer extends SourceViewer implements ITextViewerExtensi
 						        .getMasterDocument();
 
 						IProjectionPosition projectionPosition = (IProjectionPosition) position;
-						IRegion[] regions = projectionPosition.computeProjectionRegions(masterDocument);
+						IRegion[] regions = coalesce(projectionPosition.computeProjectionRegions(masterDocument));
 						if (regions != null) {
 							// expand every recomputed region included in position
-							for (int j = 0; j < regions.length; j++)
-								expand(regions[j].getOffset(), regions[j].getLength(), fireRedraw);
+							expand(regions, fireRedraw);
 						}
                         else
 	                        expand(position.getOffset(), position.getLength(), fireRedraw);// like original
@@ -1247,11 +1547,17 @@ public class ProjectionViewer extends SourceViewer implements ITextViewerExtensi
 		}
 	}
 
-	private boolean covers(List coverage, Position position) {
-		Iterator e= coverage.iterator();
+	/*
+	 * The coverage only holds positions of the projection annotation model, so instead of testing
+	 * each of them, the model is asked for the positions enclosing the given one.
+	 */
+	private boolean covers(Map coverage, Position position) {
+		if (coverage.isEmpty())
+			return false;
+		Iterator e= fProjectionAnnotationModel.getEnclosingAnnotations(position.getOffset(), position.getLength());
 		while (e.hasNext()) {
-			Position p= (Position) e.next();
-			if (p.getOffset() <= position.getOffset() && position.getOffset() + position.getLength() <= p.getOffset() + p.getLength())
+			Position p= fProjectionAnnotationModel.getPosition((Annotation) e.next());
+			if (p != null && coverage.containsKey(p))
 				return true;
 		}
 		return false;
@@ -1265,12 +1571,20 @@ public class ProjectionViewer extends SourceViewer implements ITextViewerExtensi
 	 */
 	public final void reinitializeProjection() throws BadLocationException {
 
+		if (fLazyCompletion != null) {
+			fLazyCompletion.cancel();
+			fLazyCompletion= null;
+		}
+
 		ProjectionDocument projection= null;
+		IRegion viewport= null;
 
 		ISlaveDocumentManager manager= getSlaveDocumentManager();
 		if (manager != null) {
 			IDocument master= getDocument();
 			if (master != null) {
+				if (fLazyInitialization)
+					viewport= computeInitialViewport(master);
 				IDocument slave= manager.createSlaveDocument(master);
 				if (slave instanceof ProjectionDocument) {
 					projection= (ProjectionDocument) slave;
@@ -1279,24 +1593,122 @@ public class ProjectionViewer extends SourceViewer implements ITextViewerExtensi
 			}
 		}
 
+		List pending= null;
+
 		if (projection != null) {
-			Iterator e= fProjectionAnnotationModel.getAnnotationIterator();
+			Iterator e;
+			if (viewport != null) {
+				List annotations= new ArrayList();
+				e= fProjectionAnnotationModel.getOverlappingAnnotations(0, getDocument().getLength());
+				while (e.hasNext())
+					annotations.add(e.next());
+				if (annotations.size() < LAZY_INITIALIZATION_THRESHOLD)
+					viewport= null;
+				e= annotations.iterator();
+			} else {
+				e= fProjectionAnnotationModel.getAnnotationIterator();
+			}
+
+			// with a viewport, collapse what is shown first and the rest below and above it later on
+			List above= null;
+			if (viewport != null) {
+				pending= new ArrayList();
+				above= new ArrayList();
+			}
+
 			while (e.hasNext()) {
 				ProjectionAnnotation annotation= (ProjectionAnnotation) e.next();
 				if (annotation.isCollapsed()) {
 					Position position= fProjectionAnnotationModel.getPosition(annotation);
-					if (position != null) {
-						IRegion[] regions= computeCollapsedRegions(position);
-						if (regions != null)
-							for (int i= 0; i < regions.length; i++)
-								removeMasterDocumentRange(projection, regions[i].getOffset(), regions[i].getLength());
-					}
+					if (position == null)
+						continue;
+					if (viewport != null && position.getOffset() + position.getLength() <= viewport.getOffset())
+						above.add(annotation);
+					else if (viewport != null && position.getOffset() >= viewport.getOffset() + viewport.getLength())
+						pending.add(annotation);
+					else
+						collapse(projection, position);
 				}
 			}
 
+			if (pending != null)
+				pending.addAll(above);
 		}
 
 		replaceVisibleDocument(projection);
+
+		if (pending != null && !pending.isEmpty()) {
+			fLazyCompletion= new LazyProjectionCompletion(projection, pending);
+			fLazyCompletion.schedule();
+		}
+	}
+
+	/**
+	 * Removes the collapsed regions of the given position from the given projection document.
+	 *
+	 * @param projection the projection document
+	 * @param position the position of a collapsed annotation
+	 * @throws BadLocationException in case the position is invalid
+	 * @since 3.7
+	 */
+	private void collapse(ProjectionDocument projection, Position position) throws BadLocationException {
+		IRegion[] regions= computeCollapsedRegions(position);
+		if (regions != null)
+			for (int i= 0; i < regions.length; i++)
+				removeMasterDocumentRange(projection, regions[i].getOffset(), regions[i].getLength());
+	}
+
+	/**
+	 * Computes the master document range whose collapsed annotations are applied before the
+	 * projection is shown. Folding reveals further lines, so the range covers several viewport
+	 * heights starting at the current top line.
+	 *
+	 * @param master the master document
+	 * @return the range, or <code>null</code> if all annotations should be applied at once
+	 * @throws BadLocationException in case the top line is invalid
+	 * @since 3.7
+	 */
+	private IRegion computeInitialViewport(IDocument master) throws BadLocationException {
+		StyledText widget= getTextWidget();
+		if (widget == null || widget.isDisposed())
+			return null;
+
+		int lineHeight= widget.getLineHeight();
+		int visibleLines= lineHeight > 0 ? widget.getClientArea().height / lineHeight + 1 : 0;
+		if (visibleLines <= 1)
+			visibleLines= DEFAULT_VIEWPORT_LINES;
+
+		int topLine= isVisibleMasterDocumentSameAsDocument() ? Math.max(0, getTopIndex()) : 0;
+		topLine= Math.min(topLine, master.getNumberOfLines() - 1);
+		int bottomLine= Math.min(topLine + visibleLines * VIEWPORT_LOOKAHEAD, master.getNumberOfLines() - 1);
+
+		int offset= master.getLineOffset(topLine);
+		IRegion bottom= master.getLineInformation(bottomLine);
+		return new Region(offset, bottom.getOffset() + bottom.getLength() - offset);
+	}
+
+	/**
+	 * Sets whether {@link #reinitializeProjection()} applies the collapsed annotations in the
+	 * viewport first and the remaining ones in idle slices of the UI thread afterwards. This speeds
+	 * up opening documents with many collapsed annotations. Until the projection is completed,
+	 * collapsed annotations outside the viewport may still be shown expanded.
+	 *
+	 * @param lazy <code>true</code> to complete the projection lazily
+	 * @since 3.7
+	 */
+	public void setLazyProjectionInitialization(boolean lazy) {
+		fLazyInitialization= lazy;
+	}
+
+	/**
+	 * Returns whether the projection is initialized lazily.
+	 *
+	 * @return <code>true</code> if the projection is initialized lazily
+	 * @see #setLazyProjectionInitialization(boolean)
+	 * @since 3.7
+	 */
+	public boolean isLazyProjectionInitialization() {
+		return fLazyInitialization;
 	}
 
 	/*
@@ -1379,7 +1791,7 @@ public class ProjectionViewer extends SourceViewer implements ITextViewerExtensi
 		if (moveCursor && fProjectionAnnotationModel != null && (rangeIndication == null || offset != rangeIndication.getOffset() || length != rangeIndication.getLength())) {
 			List expand= new ArrayList(2);
 			// expand the immediate affected collapsed regions
-			Iterator iterator= fProjectionAnnotationModel.getAnnotationIterator();
+			Iterator iterator= fProjectionAnnotationModel.getOverlappingAnnotations(offset, length);
 			while (iterator.hasNext()) {
 				ProjectionAnnotation annotation= (ProjectionAnnotation)iterator.next();
 				if (annotation.isCollapsed() && willAutoExpand(fProjectionAnnotationModel.getPosition(annotation), offset, length))
@@ -1413,6 +1825,14 @@ public class ProjectionViewer extends SourceViewer implements ITextViewerExtensi
 	 */
 	protected void handleDispose() {
 		fWasProjectionEnabled= false;
+		if (fLazyCompletion != null) {
+			fLazyCompletion.cancel();
+			fLazyCompletion= null;
+		}
+		// cancel catch up requests posted but not yet run
+		synchronized (fLock) {
+			fPendingRequests.clear();
+		}
 		super.handleDispose();
 	}
 
@@ -1776,7 +2196,7 @@ public class ProjectionViewer extends SourceViewer implements ITextViewerExtensi
 	 */
 	private Position[] computeOverlappingAnnotationPositions(IRegion modelSelection) {
 		List positions= new ArrayList();
-		for (Iterator e= fProjectionAnnotationModel.getAnnotationIterator(); e.hasNext();) {
+		for (Iterator e= fProjectionAnnotationModel.getOverlappingAnnotations(modelSelection.getOffset(), modelSelection.getLength()); e.hasNext();) {
 			ProjectionAnnotation annotation= (ProjectionAnnotation) e.next();
 			Position position= fProjectionAnnotationModel.getPosition(annotation);
 			if (position != null && position.overlapsWith(modelSelection.getOffset(), modelSelection.getLength()) && modelRange2WidgetRange(position) != null)